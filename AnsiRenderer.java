@@ -0,0 +1,237 @@
+import java.io.*;
+
+/**
+ * Draws GameStates to a terminal for the console play loop. The first
+ * frame (and the first after invalidate(), e.g. when a level is loaded or
+ * the terminal was resized) clears the screen and draws the whole board;
+ * after that, only the cells that changed since the last frame are
+ * rewritten, each by moving the cursor to it with an ANSI escape, and the
+ * cursor is then put back where it was, so anything printed below the
+ * board since the last input (e.g. "Saved current state to: ...") stays
+ * on screen. clearInput() wipes that area once the next input has been
+ * read. All output goes through one buffered writer that is flushed once
+ * per frame.
+ *
+ * When standard output isn't a terminal that understands escapes, every
+ * frame is simply the state's toString(), as before.
+ */
+public class AnsiRenderer {
+
+    // Starts an ANSI control sequence.
+    static final String CSI = "\u001b[";
+
+    // Clears the screen and moves the cursor to the top left.
+    static final String CLEAR_SCREEN = CSI + "2J" + CSI + "H";
+
+    // Clears from the cursor to the end of the screen.
+    static final String CLEAR_BELOW = CSI + "J";
+
+    // Save and restore the cursor position.
+    static final String SAVE_CURSOR = "\u001b7";
+    static final String RESTORE_CURSOR = "\u001b8";
+
+    // Ends a cursor position sequence, CSI row ; col H.
+    static final char POSITION_SEPARATOR = ';';
+    static final char POSITION_END = 'H';
+
+    // Terminal types that don't understand escapes.
+    static final String DUMB_TERMINAL = "dumb";
+
+    // Size of the output buffer, chars.
+    static final int BUFFER_SIZE = 1 << 13;
+
+    // Screen rows and columns (both from 1) of the board's first cell, and
+    // the columns between neighbouring cells; matches GameState.toString().
+    static final int FIRST_ROW = 2;
+    static final int FIRST_COL = 3;
+    static final int COL_STEP = 2;
+
+    // The renderer for standard output, made on first use.
+    private static AnsiRenderer console;
+
+    // Where frames are written.
+    private final Writer out;
+
+    // False to print plain toString() frames instead.
+    private final boolean ansi;
+
+    // The board as last drawn, or null if the next frame must be drawn in
+    // full.
+    private char[][] shown;
+
+    // Scratch space for writing numbers without making Strings.
+    private final char[] digits = new char[Integer.toString(
+        Integer.MAX_VALUE).length()];
+
+    /**
+     * Creates a renderer.
+     *
+     * @param out  where to write frames
+     * @param ansi whether the output understands ANSI escapes
+     */
+    AnsiRenderer(OutputStream out, boolean ansi) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out),
+                                      BUFFER_SIZE);
+        this.ansi = ansi;
+    }
+
+    /**
+     * Gets the renderer for standard output, which uses escapes only if
+     * the program is attached to a terminal that isn't a dumb one.
+     *
+     * @return the shared renderer
+     */
+    static synchronized AnsiRenderer console() {
+        if (console == null) {
+            String term = System.getenv("TERM");
+            boolean ansi = System.console() != null && term != null
+                && !term.equals(DUMB_TERMINAL);
+            console = new AnsiRenderer(System.out, ansi);
+        }
+        return console;
+    }
+
+    /**
+     * Makes the next frame clear the screen and draw everything, for when
+     * a new level is shown or the screen no longer matches the last frame.
+     */
+    void invalidate() {
+        this.shown = null;
+    }
+
+    /**
+     * Wipes everything below the board (the prompt, the input typed at it,
+     * and anything printed since) and leaves the cursor on the line just
+     * below the board, ready for the output of the input just read.
+     *
+     * @throws UncheckedIOException if the output can't be written
+     */
+    void clearInput() {
+        if (!this.ansi || this.shown == null)
+            return;
+        try {
+            moveTo(FIRST_ROW + this.shown.length + 1, 1);
+            this.out.write(CLEAR_BELOW);
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Draws a state. After a full draw the cursor is at the start of the
+     * line just below the board; after a partial one it's back where it
+     * was before the frame.
+     *
+     * @param state the state to draw
+     * @throws UncheckedIOException if the output can't be written
+     */
+    void render(GameState state) {
+        try {
+            if (!this.ansi)
+                this.out.write(state.toString());
+            else if (this.shown == null
+                    || this.shown.length != state.getHeight()
+                    || this.shown[0].length != state.getWidth())
+                drawAll(state);
+            else
+                drawChanges(state);
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Clears the screen and draws the whole board with its borders.
+     *
+     * @param state the state to draw
+     */
+    private void drawAll(GameState state) throws IOException {
+        int height = state.getHeight();
+        int width = state.getWidth();
+
+        // Remember what's on screen, reusing the last copy if it fits.
+        if (this.shown == null || this.shown.length != height
+                || this.shown[0].length != width)
+            this.shown = new char[height][width];
+
+        this.out.write(CLEAR_SCREEN);
+        writeBorder(width);
+        for (int i = 0; i < height; i++) {
+            this.out.write(GameState.SIDE_BORDER_CHAR);
+            this.out.write(GameState.SPACE_CHAR);
+            for (int j = 0; j < width; j++) {
+                char c = state.charAt(i, j);
+                this.out.write(c);
+                this.out.write(GameState.SPACE_CHAR);
+                this.shown[i][j] = c;
+            }
+            this.out.write(GameState.SIDE_BORDER_CHAR);
+            this.out.write(GameState.NEWLINE_CHAR);
+        }
+        writeBorder(width);
+    }
+
+    /**
+     * Rewrites the cells that differ from the last frame, then puts the
+     * cursor back where it was.
+     *
+     * @param state the state to draw, the same size as the last one
+     */
+    private void drawChanges(GameState state) throws IOException {
+        this.out.write(SAVE_CURSOR);
+        for (int i = 0; i < this.shown.length; i++) {
+            char[] shownRow = this.shown[i];
+            for (int j = 0; j < shownRow.length; j++) {
+                char c = state.charAt(i, j);
+                if (c == shownRow[j])
+                    continue;
+                moveTo(FIRST_ROW + i, FIRST_COL + COL_STEP * j);
+                this.out.write(c);
+                shownRow[j] = c;
+            }
+        }
+
+        this.out.write(RESTORE_CURSOR);
+    }
+
+    /**
+     * Writes a horizontal border line, as GameState.toString() does.
+     *
+     * @param width the board's width
+     */
+    private void writeBorder(int width) throws IOException {
+        for (int i = 0; i < COL_STEP * width + 3; i++)
+            this.out.write(GameState.HORIZONTAL_BORDER_CHAR);
+        this.out.write(GameState.NEWLINE_CHAR);
+    }
+
+    /**
+     * Writes the escape that moves the cursor to a screen position.
+     *
+     * @param row the screen row, from 1
+     * @param col the screen column, from 1
+     */
+    private void moveTo(int row, int col) throws IOException {
+        this.out.write(CSI);
+        writeNumber(row);
+        this.out.write(POSITION_SEPARATOR);
+        writeNumber(col);
+        this.out.write(POSITION_END);
+    }
+
+    /**
+     * Writes a non-negative number in decimal.
+     *
+     * @param n the number
+     */
+    private void writeNumber(int n) throws IOException {
+        int start = this.digits.length;
+        do {
+            this.digits[--start] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        this.out.write(this.digits, start, this.digits.length - start);
+    }
+}
@@ -0,0 +1,478 @@
+import java.util.stream.IntStream;
+
+/**
+ * Plays many independent boards at once, for training agents. Each call to
+ * step() makes one move on every board, each in its own direction, by the
+ * same rules as GameState.move() and with the same rewards and episode
+ * ends as StreamlineEngine.
+ *
+ * Rather than one GameState per board, all boards are kept side by side in
+ * a few primitive arrays: every board's player position in two int arrays,
+ * and its obstacles and trail as one long per row, bit col set for each
+ * cell, in two long arrays. A third long array holds each column's
+ * blocked cells (obstacle or trail), bit row set, so that vertical moves
+ * can be read a whole line at a time too. Instead of stepping cell by
+ * cell, a move rotates the line it runs along so that the cell ahead of
+ * the player is bit 0, and one bit scan finds the first blocked cell.
+ * Nothing is allocated, and a large batch can be split across cores.
+ *
+ * The bit scan makes a move cost the same however far the player goes, so
+ * it pays off where moves are long (large, open boards). On small, crowded
+ * boards moves are short, and one core steps a batch at about the same
+ * rate as the same number of StreamlineEngines.
+ *
+ * All boards must be the same size, at most MAX_SIDE cells each way, but
+ * each can be a different level. None of it is thread-safe, apart from
+ * the split that step() makes itself.
+ */
+public class BatchEnvironment {
+
+    // Boards stepped by one task when a step is split across cores.
+    static final int BOARDS_PER_TASK = 1 << 10;
+
+    // The longest row or column a line mask can hold.
+    static final int MAX_SIDE = Long.SIZE;
+
+    // The boards' size.
+    final int height;
+    final int width;
+
+    // Number of boards.
+    final int size;
+
+    // Each board's level, for reset() and toState().
+    private final GameState[] levels;
+
+    // Each board's rows (height per board): obstacles, then trail.
+    private final long[] rowObstacles;
+    private final long[] rowTrails;
+
+    // Each board's columns (width per board): obstacles and trail.
+    private final long[] colBlocked;
+
+    // Each board's rows and columns as its level starts, for reset().
+    private final long[] startRowTrails;
+    private final long[] startColBlocked;
+
+    // Each board's player location.
+    private final int[] playerRows;
+    private final int[] playerCols;
+
+    // Each board's goal location.
+    private final int[] goalRows;
+    private final int[] goalCols;
+
+    // Each board's episode progress, as StreamlineEngine keeps it.
+    private final boolean[] passed;
+    private final boolean[] done;
+    private final boolean[] changed;
+    private final double[] rewards;
+
+    /**
+     * Creates a batch, one board per level.
+     *
+     * @param levels the boards' starting states (copied, not kept)
+     * @throws IllegalArgumentException if there are no levels, they
+     *                                  aren't all the same size, or a
+     *                                  side is longer than MAX_SIDE
+     */
+    public BatchEnvironment(GameState[] levels) {
+        if (levels.length == 0)
+            throw new IllegalArgumentException("No levels given");
+
+        this.height = levels[0].getHeight();
+        this.width = levels[0].getWidth();
+        this.size = levels.length;
+        if (this.height > MAX_SIDE || this.width > MAX_SIDE)
+            throw new IllegalArgumentException("Boards are " + this.height
+                + "x" + this.width + ", over " + MAX_SIDE + " cells a side");
+
+        this.levels = new GameState[this.size];
+        this.rowObstacles = new long[this.size * this.height];
+        this.rowTrails = new long[this.size * this.height];
+        this.colBlocked = new long[this.size * this.width];
+        this.startRowTrails = new long[this.size * this.height];
+        this.startColBlocked = new long[this.size * this.width];
+        this.playerRows = new int[this.size];
+        this.playerCols = new int[this.size];
+        this.goalRows = new int[this.size];
+        this.goalCols = new int[this.size];
+        this.passed = new boolean[this.size];
+        this.done = new boolean[this.size];
+        this.changed = new boolean[this.size];
+        this.rewards = new double[this.size];
+
+        for (int i = 0; i < this.size; i++)
+            setLevel(i, levels[i]);
+    }
+
+    /**
+     * Creates a batch of copies of one level.
+     *
+     * @param level the boards' starting state (copied, not kept)
+     * @param size  the number of boards
+     */
+    public BatchEnvironment(GameState level, int size) {
+        this(copies(level, size));
+    }
+
+    /**
+     * Puts a new level on one board and starts a new episode there.
+     *
+     * @param board the board's index
+     * @param level the level's starting state (copied, not kept)
+     * @throws IllegalArgumentException if the level isn't this batch's size
+     */
+    void setLevel(int board, GameState level) {
+        if (level.getHeight() != this.height
+                || level.getWidth() != this.width)
+            throw new IllegalArgumentException("Level is "
+                + level.getHeight() + "x" + level.getWidth()
+                + ", not " + this.height + "x" + this.width);
+
+        this.levels[board] = new GameState(level);
+
+        int rows = board * this.height;
+        int cols = board * this.width;
+        for (int i = 0; i < this.height; i++) {
+            this.rowObstacles[rows + i] = 0;
+            this.startRowTrails[rows + i] = 0;
+        }
+        for (int j = 0; j < this.width; j++)
+            this.startColBlocked[cols + j] = 0;
+
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                int cell = i * this.width + j;
+                boolean obstacle = level.layout.isObstacle(cell);
+                boolean trail = StateSignature.get(level.trail, cell);
+                if (obstacle)
+                    this.rowObstacles[rows + i] |= 1L << j;
+                if (trail)
+                    this.startRowTrails[rows + i] |= 1L << j;
+                if (obstacle || trail)
+                    this.startColBlocked[cols + j] |= 1L << i;
+            }
+        }
+        this.goalRows[board] = level.getGoalRow();
+        this.goalCols[board] = level.getGoalCol();
+
+        reset(board);
+    }
+
+    /**
+     * Starts a new episode on every board.
+     */
+    void reset() {
+        for (int i = 0; i < this.size; i++)
+            reset(i);
+    }
+
+    /**
+     * Starts a new episode on one board.
+     *
+     * @param board the board's index
+     */
+    void reset(int board) {
+        GameState level = this.levels[board];
+        System.arraycopy(this.startRowTrails, board * this.height,
+                         this.rowTrails, board * this.height, this.height);
+        System.arraycopy(this.startColBlocked, board * this.width,
+                         this.colBlocked, board * this.width, this.width);
+        this.playerRows[board] = level.playerRow;
+        this.playerCols[board] = level.playerCol;
+        this.passed[board] = level.levelPassed;
+        this.done[board] = level.levelPassed || isStuck(board);
+        this.changed[board] = false;
+        this.rewards[board] = 0;
+    }
+
+    /**
+     * Starts a new episode on every board whose episode is over.
+     *
+     * @return the number of boards reset
+     */
+    int resetDone() {
+        int count = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (this.done[i]) {
+                reset(i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes one move on every board, on this thread.
+     *
+     * @param directions each board's direction, or null to leave a board
+     *                   as it is
+     */
+    void step(Direction[] directions) {
+        step(directions, false);
+    }
+
+    /**
+     * Makes one move on every board. Afterwards getReward(), isDone() and
+     * isChanged() describe each board's step; a board left as it is gets a
+     * reward of 0.
+     *
+     * @param directions each board's direction, or null to leave a board
+     *                   as it is
+     * @param parallel   true to split the boards across cores, in tasks of
+     *                   BOARDS_PER_TASK boards
+     */
+    void step(Direction[] directions, boolean parallel) {
+        if (directions.length != this.size)
+            throw new IllegalArgumentException(directions.length
+                + " directions for " + this.size + " boards");
+
+        int tasks = (this.size + BOARDS_PER_TASK - 1) / BOARDS_PER_TASK;
+        if (!parallel || tasks < 2) {
+            step(directions, 0, this.size);
+            return;
+        }
+        IntStream.range(0, tasks).parallel().forEach(task -> step(
+            directions, task * BOARDS_PER_TASK,
+            Math.min(this.size, (task + 1) * BOARDS_PER_TASK)));
+    }
+
+    /**
+     * Makes one move on each of a range of boards.
+     *
+     * @param directions each board's direction, or null
+     * @param from       index of the first board
+     * @param to         index just past the last board
+     */
+    private void step(Direction[] directions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Direction direction = directions[i];
+            if (direction == null) {
+                this.changed[i] = false;
+                this.rewards[i] = 0;
+            } else {
+                this.rewards[i] = step(i, direction);
+            }
+        }
+    }
+
+    /**
+     * Makes one move on a board, as StreamlineEngine.step() does.
+     *
+     * @param board     the board's index
+     * @param direction the direction to move in
+     * @return          the step's reward
+     */
+    private double step(int board, Direction direction) {
+        if (this.done[board]) {
+            this.changed[board] = false;
+            return StreamlineEngine.BLOCKED_REWARD;
+        }
+
+        int row = this.playerRows[board];
+        int col = this.playerCols[board];
+        int rows = board * this.height;
+        int cols = board * this.width;
+        boolean vertical = direction.getColDelta() == 0;
+        boolean forward = direction.getRowDelta() + direction.getColDelta()
+                        > 0;
+
+        // The line the player moves along, its place in it, and the goal's
+        // place in it (or -1 if the goal is elsewhere).
+        int length;
+        int pos;
+        int goal;
+        long line;
+        if (vertical) {
+            length = this.height;
+            pos = row;
+            goal = this.goalCols[board] == col ? this.goalRows[board] : -1;
+            line = this.colBlocked[cols + col];
+        } else {
+            length = this.width;
+            pos = col;
+            goal = this.goalRows[board] == row ? this.goalCols[board] : -1;
+            line = this.rowObstacles[rows + row] | this.rowTrails[rows + row];
+        }
+
+        // The player's own cell stops a move that wraps all the way round.
+        line |= 1L << pos;
+
+        // Find how many cells the player moves, and the first cell of the
+        // run of cells it leaves trail on (its start cell included).
+        int moved;
+        int first;
+        if (forward) {
+            long ahead = rotateRight(line, pos + 1 == length ? 0 : pos + 1,
+                                     length);
+            moved = Long.numberOfTrailingZeros(ahead);
+            if (goal >= 0) {
+                int distance = goal - pos - 1;
+                if (distance < 0)
+                    distance += length;
+                if (distance < moved)
+                    moved = distance + 1;
+            }
+            first = pos;
+            pos += moved;
+            if (pos >= length)
+                pos -= length;
+        } else {
+            long ahead = rotateRight(line, pos, length);
+            moved = Long.numberOfLeadingZeros(ahead) - (Long.SIZE - length);
+            if (goal >= 0) {
+                int distance = pos - 1 - goal;
+                if (distance < 0)
+                    distance += length;
+                if (distance < moved)
+                    moved = distance + 1;
+            }
+            pos -= moved;
+            if (pos < 0)
+                pos += length;
+            first = pos + 1 == length ? 0 : pos + 1;
+        }
+
+        // Lay the trail in both views of the board.
+        if (moved > 0) {
+            long trail = rotateRight((1L << moved) - 1,
+                                     first == 0 ? 0 : length - first, length);
+            if (vertical) {
+                this.colBlocked[cols + col] |= trail;
+                for (long bits = trail; bits != 0; bits &= bits - 1)
+                    this.rowTrails[rows + Long.numberOfTrailingZeros(bits)]
+                        |= 1L << col;
+                row = pos;
+            } else {
+                this.rowTrails[rows + row] |= trail;
+                for (long bits = trail; bits != 0; bits &= bits - 1)
+                    this.colBlocked[cols + Long.numberOfTrailingZeros(bits)]
+                        |= 1L << row;
+                col = pos;
+            }
+        }
+
+        this.playerRows[board] = row;
+        this.playerCols[board] = col;
+        this.changed[board] = moved > 0;
+
+        if (row == this.goalRows[board] && col == this.goalCols[board]) {
+            this.passed[board] = true;
+            this.done[board] = true;
+            return StreamlineEngine.GOAL_REWARD;
+        }
+        if (moved == 0)
+            return StreamlineEngine.BLOCKED_REWARD;
+        if (isStuck(board)) {
+            this.done[board] = true;
+            return StreamlineEngine.MOVE_REWARD
+                + StreamlineEngine.STUCK_REWARD;
+        }
+        return StreamlineEngine.MOVE_REWARD;
+    }
+
+    /**
+     * Checks whether no direction would move a board's player, i.e. the
+     * cells on either side of it in its row and column (wrapping around
+     * the edges) are all blocked or its own.
+     *
+     * @param board the board's index
+     * @return      true if the player can't move
+     */
+    private boolean isStuck(int board) {
+        int row = this.playerRows[board];
+        int col = this.playerCols[board];
+        int rows = board * this.height;
+        long across = this.rowObstacles[rows + row]
+                    | this.rowTrails[rows + row] | 1L << col;
+        long down = this.colBlocked[board * this.width + col] | 1L << row;
+        int left = (col == 0 ? this.width : col) - 1;
+        int right = col + 1 == this.width ? 0 : col + 1;
+        int up = (row == 0 ? this.height : row) - 1;
+        int below = row + 1 == this.height ? 0 : row + 1;
+        return (across >>> left & across >>> right
+                & down >>> up & down >>> below & 1) != 0;
+    }
+
+    /**
+     * Rotates the low bits of a line mask towards bit 0, wrapping the ones
+     * shifted out back in at the top of the line.
+     *
+     * @param line   a mask of the line's cells, bit i for cell i
+     * @param shift  how far to rotate, from 0 to length - 1
+     * @param length the line's length, at most MAX_SIDE
+     * @return       the rotated mask, with cell shift at bit 0
+     */
+    private static long rotateRight(long line, int shift, int length) {
+        if (shift == 0)
+            return line;
+        long mask = length == Long.SIZE ? -1L : (1L << length) - 1;
+        return (line >>> shift | line << (length - shift)) & mask;
+    }
+
+    /**
+     * @param board the board's index
+     * @return      the reward of the board's last step
+     */
+    double getReward(int board) {
+        return this.rewards[board];
+    }
+
+    /**
+     * @param board the board's index
+     * @return      true once the board's goal is reached or its player is
+     *              stuck
+     */
+    boolean isDone(int board) {
+        return this.done[board];
+    }
+
+    /**
+     * @param board the board's index
+     * @return      true if the board's goal has been reached
+     */
+    boolean isPassed(int board) {
+        return this.passed[board];
+    }
+
+    /**
+     * @param board the board's index
+     * @return      true if the board's last step moved its player
+     */
+    boolean isChanged(int board) {
+        return this.changed[board];
+    }
+
+    /**
+     * Copies one board out as a GameState, e.g. to draw it or solve it.
+     *
+     * @param board the board's index
+     * @return      a new state, sharing the level's layout
+     */
+    GameState toState(int board) {
+        GameState state = new GameState(this.levels[board]);
+        java.util.Arrays.fill(state.trail, 0);
+        for (int i = 0; i < this.height; i++) {
+            long bits = this.rowTrails[board * this.height + i];
+            for (; bits != 0; bits &= bits - 1)
+                StateSignature.set(state.trail, i * this.width
+                                   + Long.numberOfTrailingZeros(bits));
+        }
+        state.playerRow = this.playerRows[board];
+        state.playerCol = this.playerCols[board];
+        state.levelPassed = this.passed[board];
+        return state;
+    }
+
+    /**
+     * @param level a level
+     * @param size  how many times to repeat it
+     * @return      an array holding the level size times
+     */
+    private static GameState[] copies(GameState level, int size) {
+        GameState[] levels = new GameState[size];
+        java.util.Arrays.fill(levels, level);
+        return levels;
+    }
+}
@@ -0,0 +1,397 @@
+import java.util.*;
+
+/**
+ * Searches for a solution from both ends at once: breadth first forward
+ * from the start state, and backward from the player standing on the goal,
+ * always growing whichever frontier is smaller. Levels whose solutions are
+ * long (e.g. corridor mazes) need far fewer states this way than searching
+ * forward alone.
+ *
+ * Going backward, the board isn't known, since it depends on the moves that
+ * came before. A backward state is therefore a player cell plus two sets of
+ * constraints for whatever prefix leads to it:
+ *
+ *   free     cells the rest of the solution slides through, so the prefix
+ *            must not have laid trail on them;
+ *   blocked  cells the rest of the solution needs to stop against, so the
+ *            prefix must have laid trail on them.
+ *
+ * A forward state meets a backward state when the player is on the same
+ * cell and its trail satisfies both sets. The two halves are then replayed
+ * on the start state to confirm the joined solution before returning it.
+ */
+public class BidirectionalSolver {
+
+    // The level being solved.
+    private final GameState start;
+    private final int height;
+    private final int width;
+
+    // Fixed cells of the level: the goal, where the player starts (which
+    // is never free again), and the obstacles.
+    private final int goal;
+    private final int startCell;
+    private final boolean[] obstacle;
+
+    // Longs per bit set, and where the blocked set starts in a backward
+    // signature's bits.
+    private final int words;
+    private final int blockedOffset;
+
+    // Counts the work done.
+    private final SearchStats stats;
+
+    // Drops forward states that can no longer reach the goal.
+    private final Reachability reach = new Reachability();
+
+    // Every state seen so far from each side.
+    private final HashSet<StateSignature> forwardSeen =
+        new HashSet<StateSignature>();
+    private final HashSet<StateSignature> backwardSeen =
+        new HashSet<StateSignature>();
+
+    // Each side's paths. A backward node's parent is the state its move
+    // leads to, so its path is read from the node up to the root.
+    private final SearchTree forwardTree = new SearchTree();
+    private final SearchTree backwardTree = new SearchTree();
+
+    // Each side's states, indexed by node.
+    private final List<StateSignature> forwardStates =
+        new ArrayList<StateSignature>();
+    private final List<StateSignature> backwardStates =
+        new ArrayList<StateSignature>();
+
+    // Each side's nodes chained by player cell, for meeting: the newest
+    // node on each cell, and for each node the one before it on its cell.
+    private final int[] forwardNewestAt;
+    private final int[] backwardNewestAt;
+    private int[] forwardOlderAt = new int[SearchTree.INITIAL_CAPACITY];
+    private int[] backwardOlderAt = new int[SearchTree.INITIAL_CAPACITY];
+
+    // Where each side's newest layer, the one waiting to be expanded,
+    // starts. It runs to the end of the side's tree.
+    private int forwardLayerStart;
+    private int backwardLayerStart;
+
+    /**
+     * Sets up a search.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     */
+    BidirectionalSolver(GameState start, SearchStats stats) {
+        this.start = start;
+        this.stats = stats;
+        this.height = start.getHeight();
+        this.width = start.getWidth();
+        int cells = this.height * this.width;
+
+        this.goal = start.getGoalRow() * this.width + start.getGoalCol();
+        this.startCell = start.playerRow * this.width + start.playerCol;
+        this.obstacle = new boolean[cells];
+        for (int i = 0; i < this.height; i++)
+            for (int j = 0; j < this.width; j++)
+                this.obstacle[i * this.width + j] =
+                    start.layout.isObstacle(i, j);
+
+        this.words = StateSignature.newBits(cells).length;
+        this.blockedOffset = this.words * Long.SIZE;
+
+        this.forwardNewestAt = new int[cells];
+        this.backwardNewestAt = new int[cells];
+        Arrays.fill(this.forwardNewestAt, SearchTree.NO_PARENT);
+        Arrays.fill(this.backwardNewestAt, SearchTree.NO_PARENT);
+    }
+
+    /**
+     * Searches for a solution from both ends.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     * @return      a solution, or null if there is none or the calling
+     *              thread was interrupted
+     */
+    static List<Direction> solve(GameState start, SearchStats stats) {
+        return new BidirectionalSolver(start, stats).solve();
+    }
+
+    /**
+     * Runs the search.
+     *
+     * @return same as solve(GameState, SearchStats)
+     */
+    List<Direction> solve() {
+        if (this.start.levelPassed)
+            return new ArrayList<Direction>();
+
+        // Forward from the start, backward from the player on the goal.
+        StateSignature first = StateSignature.of(this.start);
+        this.forwardSeen.add(first);
+        addForward(SearchTree.NO_PARENT, null, first);
+        StateSignature last =
+            new StateSignature(this.goal, new long[2 * this.words]);
+        this.backwardSeen.add(last);
+        addBackward(SearchTree.NO_PARENT, null, last);
+
+        // Once the forward side runs out, every state that can be reached
+        // has been tried. The backward side running out just means the
+        // forward side has to do the rest.
+        while (this.forwardLayerStart < this.forwardTree.size()) {
+            if (Thread.currentThread().isInterrupted())
+                return null;
+
+            int forwardLayer = this.forwardTree.size() - this.forwardLayerStart;
+            int backwardLayer =
+                this.backwardTree.size() - this.backwardLayerStart;
+            boolean forward = backwardLayer == 0
+                || forwardLayer <= backwardLayer;
+            List<Direction> solution = forward ? expandForward()
+                                               : expandBackward();
+            if (solution != null)
+                return solution;
+        }
+        return null;
+    }
+
+    /**
+     * Expands the whole forward frontier by one move.
+     *
+     * @return a solution if the new states meet the backward side
+     */
+    private List<Direction> expandForward() {
+        int layerEnd = this.forwardTree.size();
+        for (int node = this.forwardLayerStart; node < layerEnd; node++) {
+            GameState state = this.forwardStates.get(node).toState(this.start);
+            if (state.levelPassed) continue;
+            this.stats.nodesExpanded++;
+
+            for (Direction dir : Direction.values()) {
+                GameState copy = new GameState(state);
+                copy.move(dir);
+
+                // The player didn't move, so nothing changed.
+                if (copy.playerRow == state.playerRow
+                        && copy.playerCol == state.playerCol)
+                    continue;
+
+                StateSignature signature = StateSignature.of(copy);
+                if (!this.forwardSeen.add(signature))
+                    continue;
+                if (!copy.levelPassed && !this.reach.canReachGoal(copy)) {
+                    this.stats.statesPruned++;
+                    continue;
+                }
+
+                List<Direction> solution = addForward(node, dir, signature);
+                if (solution != null)
+                    return solution;
+            }
+        }
+        this.forwardLayerStart = layerEnd;
+        return null;
+    }
+
+    /**
+     * Expands the whole backward frontier by one move.
+     *
+     * @return a solution if the new states meet the forward side
+     */
+    private List<Direction> expandBackward() {
+        int layerEnd = this.backwardTree.size();
+        for (int node = this.backwardLayerStart; node < layerEnd; node++) {
+            this.stats.nodesExpanded++;
+            for (Direction dir : Direction.values()) {
+                List<Direction> solution = unslide(node, dir);
+                if (solution != null)
+                    return solution;
+            }
+        }
+        this.backwardLayerStart = layerEnd;
+        return null;
+    }
+
+    /**
+     * Adds every state that reaches a backward state with one slide in a
+     * given direction, undoing GameState.move(): the slide passes through
+     * cells that were free and ends either on the goal or against a cell
+     * that was blocked, and each cell it leaves becomes trail.
+     *
+     * @param node the state the slide ends in
+     * @param dir  the direction of the slide
+     * @return     a solution if a new state meets the forward side
+     */
+    private List<Direction> unslide(int node, Direction dir) {
+        StateSignature state = this.backwardStates.get(node);
+        long[] bits = state.bits;
+        int player = state.player;
+        int row = player / this.width;
+        int col = player % this.width;
+
+        // Off the goal, the slide only stops at player because the next
+        // cell was blocked. That cell must stay blocked, so it can't be
+        // one the rest of the solution slides through, nor the goal.
+        int stop = -1;
+        if (player != this.goal) {
+            int next = cell(row + dir.getRowDelta(), col + dir.getColDelta());
+            if (next == this.goal || StateSignature.get(bits, next))
+                return null;
+            if (!this.obstacle[next] && next != this.startCell)
+                stop = next;
+        }
+
+        // Walk back along the slide, one possible starting cell at a time.
+        long[] slide = Arrays.copyOf(bits, bits.length);
+        int entered = player;
+        while (true) {
+
+            // The slide enters this cell, so it must have been free then.
+            // Being trail afterwards, it also blocks any later stop on it.
+            if (entered != player && (this.obstacle[entered]
+                    || entered == this.goal || entered == this.startCell
+                    || StateSignature.get(bits, entered)))
+                return null;
+            StateSignature.set(slide, entered);
+            StateSignature.clear(slide, this.blockedOffset + entered);
+
+            int from = cell(row - dir.getRowDelta(), col - dir.getColDelta());
+            row = from / this.width;
+            col = from % this.width;
+
+            // The player can't start on an obstacle, the goal, a cell
+            // that must stay free, or beyond a full lap of the board.
+            if (from == player || this.obstacle[from] || from == this.goal
+                    || StateSignature.get(bits, from))
+                return null;
+
+            long[] previous = Arrays.copyOf(slide, slide.length);
+            StateSignature.clear(previous, this.blockedOffset + from);
+            if (stop >= 0 && stop != from && !StateSignature.get(slide, stop))
+                StateSignature.set(previous, this.blockedOffset + stop);
+
+            StateSignature signature = new StateSignature(from, previous);
+            if (this.backwardSeen.add(signature)) {
+                List<Direction> solution = addBackward(node, dir, signature);
+                if (solution != null)
+                    return solution;
+            }
+
+            // Sliding from further back would pass over the start cell.
+            if (from == this.startCell)
+                return null;
+            entered = from;
+        }
+    }
+
+    /**
+     * Records a new forward state and looks for a backward state it meets.
+     *
+     * @param parent    the state it was reached from, or NO_PARENT
+     * @param move      the move made from there
+     * @param signature the new state
+     * @return          a solution if one was found
+     */
+    private List<Direction> addForward(int parent, Direction move,
+                                       StateSignature signature) {
+        int node = parent == SearchTree.NO_PARENT
+                 ? this.forwardTree.addRoot()
+                 : this.forwardTree.add(parent, move);
+        this.forwardStates.add(signature);
+        this.forwardOlderAt = chain(this.forwardOlderAt, this.forwardNewestAt,
+                                    node, signature.player);
+
+        for (int other = this.backwardNewestAt[signature.player];
+                other != SearchTree.NO_PARENT;
+                other = this.backwardOlderAt[other]) {
+            List<Direction> solution = join(node, other);
+            if (solution != null)
+                return solution;
+        }
+        return null;
+    }
+
+    /**
+     * Records a new backward state and looks for a forward state it meets.
+     *
+     * @param next      the state its move leads to, or NO_PARENT
+     * @param move      the move made to get there
+     * @param signature the new state
+     * @return          a solution if one was found
+     */
+    private List<Direction> addBackward(int next, Direction move,
+                                        StateSignature signature) {
+        int node = next == SearchTree.NO_PARENT
+                 ? this.backwardTree.addRoot()
+                 : this.backwardTree.add(next, move);
+        this.backwardStates.add(signature);
+        this.backwardOlderAt = chain(this.backwardOlderAt,
+            this.backwardNewestAt, node, signature.player);
+
+        for (int other = this.forwardNewestAt[signature.player];
+                other != SearchTree.NO_PARENT;
+                other = this.forwardOlderAt[other]) {
+            List<Direction> solution = join(other, node);
+            if (solution != null)
+                return solution;
+        }
+        return null;
+    }
+
+    /**
+     * Links a new node in front of the others on its player's cell.
+     *
+     * @param olderAt  each node's older neighbour on its cell
+     * @param newestAt each cell's newest node
+     * @param node     the new node
+     * @param player   its player's cell
+     * @return         olderAt, grown if it had no room for node
+     */
+    private static int[] chain(int[] olderAt, int[] newestAt, int node,
+                               int player) {
+        if (node == olderAt.length)
+            olderAt = Arrays.copyOf(olderAt, node * 2);
+        olderAt[node] = newestAt[player];
+        newestAt[player] = node;
+        return olderAt;
+    }
+
+    /**
+     * Joins a forward and a backward state on the same cell into a
+     * solution, if the forward trail meets the backward constraints.
+     *
+     * @param forward  the forward state's node
+     * @param backward the backward state's node
+     * @return         the whole solution, or null if they don't meet
+     */
+    private List<Direction> join(int forward, int backward) {
+        long[] trail = this.forwardStates.get(forward).bits;
+        long[] bits = this.backwardStates.get(backward).bits;
+        for (int i = 0; i < this.words; i++) {
+            if ((trail[i] & bits[i]) != 0)
+                return null;
+            if ((bits[this.words + i] & ~trail[i]) != 0)
+                return null;
+        }
+
+        List<Direction> solution = this.forwardTree.pathTo(forward);
+        solution.addAll(this.backwardTree.pathFrom(backward));
+
+        // Make sure the two halves really play through.
+        GameState check = new GameState(this.start);
+        for (Direction dir : solution)
+            check.move(dir);
+        return check.levelPassed ? solution : null;
+    }
+
+    /**
+     * Numbers a cell, wrapping around the edges like GameState.move().
+     *
+     * @param row the cell's row, possibly one off the board
+     * @param col the cell's column, possibly one off the board
+     * @return    row * width + col, after wrapping
+     */
+    private int cell(int row, int col) {
+        row = (row + this.height) % this.height;
+        col = (col + this.width) % this.width;
+        return row * this.width + col;
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.*;
+
+/**
+ * Finds a shortest solution (fewest moves) by breadth-first search over
+ * every state reachable from the start, one layer of moves at a time.
+ *
+ * Each state is kept only as its StateSignature, and its path as a node of
+ * a SearchTree; full GameStates are rebuilt from signatures just to expand
+ * them. Nodes are numbered in the order they're found, so each layer is
+ * simply a range of node numbers.
+ */
+public class BreadthFirstSolver {
+
+    /**
+     * Searches for a shortest solution.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     * @return      a shortest solution, or null if there is none or the
+     *              calling thread was interrupted
+     */
+    static List<Direction> solve(GameState start, SearchStats stats) {
+        if (start.levelPassed)
+            return new ArrayList<Direction>();
+
+        SearchTree tree = new SearchTree();
+        List<StateSignature> signatures = new ArrayList<StateSignature>();
+        HashSet<StateSignature> seen = new HashSet<StateSignature>();
+        Reachability reach = new Reachability();
+
+        StateSignature first = StateSignature.of(start);
+        tree.addRoot();
+        signatures.add(first);
+        seen.add(first);
+
+        int layerStart = 0;
+        while (layerStart < tree.size()) {
+            int layerEnd = tree.size();
+
+            for (int node = layerStart; node < layerEnd; node++) {
+                if (Thread.currentThread().isInterrupted())
+                    return null;
+
+                GameState state = signatures.get(node).toState(start);
+                stats.nodesExpanded++;
+
+                for (Direction dir : Direction.values()) {
+                    GameState copy = new GameState(state);
+                    copy.move(dir);
+
+                    // The player didn't move, so nothing changed.
+                    if (copy.playerRow == state.playerRow
+                            && copy.playerCol == state.playerCol)
+                        continue;
+
+                    // The first solution found is on the shallowest layer.
+                    if (copy.levelPassed)
+                        return tree.pathTo(tree.add(node, dir));
+
+                    StateSignature signature = StateSignature.of(copy);
+                    if (!seen.add(signature))
+                        continue;
+                    if (!reach.canReachGoal(copy)) {
+                        stats.statesPruned++;
+                        continue;
+                    }
+
+                    tree.add(node, dir);
+                    signatures.add(signature);
+                }
+            }
+            layerStart = layerEnd;
+        }
+        return null;
+    }
+}
@@ -4,21 +4,27 @@
  */
 public enum Direction
 {
-    UP(0), 
-    RIGHT(1), 
-    DOWN(2), 
-    LEFT(3);
+    UP(0, -1, 0), 
+    RIGHT(1, 0, 1), 
+    DOWN(2, 1, 0), 
+    LEFT(3, 0, -1);
 
     private int rotationCount;
+    private int rowDelta;
+    private int colDelta;
 
     /**
      * Constructor for the enum
      * 
      * @param rotationCount see getRotationCount()
+     * @param rowDelta      see getRowDelta()
+     * @param colDelta      see getColDelta()
      */
-    Direction(int rotationCount)
+    Direction(int rotationCount, int rowDelta, int colDelta)
     {
         this.rotationCount = rotationCount;
+        this.rowDelta = rowDelta;
+        this.colDelta = colDelta;
     }
 
     /**
@@ -32,4 +38,25 @@ public enum Direction
     {
         return this.rotationCount;
     }
+
+    /**
+     * Returns how much the row changes with each step in this direction
+     * (e.g. -1 for UP, since rows are numbered from the top).
+     * 
+     * @return row change per step
+     */
+    public int getRowDelta()
+    {
+        return this.rowDelta;
+    }
+
+    /**
+     * Returns how much the column changes with each step in this direction.
+     * 
+     * @return column change per step
+     */
+    public int getColDelta()
+    {
+        return this.colDelta;
+    }
 }
\ No newline at end of file
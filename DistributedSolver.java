@@ -0,0 +1,587 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Solves a level with several worker JVMs, coordinated over local sockets.
+ *
+ * The coordinator expands the start state a few macro-moves deep (see
+ * MacroMoveGraph) until there are several subtrees per worker, and hands
+ * them out as units of work. Workers (SolverWorker) pull a unit whenever
+ * they're idle and search it depth first on their own. Once no units are
+ * left, an idle worker's request makes the coordinator ask a busy worker to
+ * split off part of its unit, so every worker keeps busy until the end.
+ * The first solution any worker finds wins and everyone is told to stop.
+ *
+ * Messages are DataOutputStream records, each starting with a one byte
+ * code. Levels are sent in the same format as session log headers.
+ *
+ *   to workers:   WORK unit level   STEAL   STOP
+ *   from workers: READY   FOUND unit nodes moves   EXHAUSTED unit nodes
+ *                 SPLIT unit moves level   NO_SPLIT unit
+ *
+ * Moves are an int count followed by one byte per move (its rotation
+ * count); for SPLIT they lead from the unit's state to the level sent.
+ * A worker that is asked to split while idle answers NO_SPLIT NO_UNIT.
+ *
+ * By default the coordinator starts its own workers as child processes on
+ * this machine, but workers started by hand (even on other machines, given
+ * a coordinator listening beyond loopback) speak the same protocol.
+ */
+public class DistributedSolver {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java DistributedSolver <level file>            - "
+        + "solve a level with one worker per processor\n" +
+        "> java DistributedSolver <level file> <workers>  - "
+        + "solve a level with a given number of workers\n";
+
+    // Message codes sent to workers.
+    static final int WORK = 1;
+    static final int STEAL = 2;
+    static final int STOP = 3;
+
+    // Message codes sent by workers.
+    static final int READY = 1;
+    static final int FOUND = 2;
+    static final int EXHAUSTED = 3;
+    static final int SPLIT = 4;
+    static final int NO_SPLIT = 5;
+
+    // The unit named in a NO_SPLIT from an idle worker.
+    static final int NO_UNIT = -1;
+
+    // Subtrees to start with per worker, before any splitting.
+    static final int UNITS_PER_WORKER = 8;
+
+    // How long to wait for workers to exit once stopped, ms.
+    static final int WORKER_EXIT_TIMEOUT = 2000;
+
+    // How often to check that some worker is still alive, ms.
+    static final int WORKER_CHECK_INTERVAL = 500;
+
+    /**
+     * A subtree to search: its root state, and the moves to it.
+     */
+    static class Unit {
+        final int id;
+        final List<Direction> prefix;
+        final GameState state;
+
+        Unit(int id, List<Direction> prefix, GameState state) {
+            this.id = id;
+            this.prefix = prefix;
+            this.state = state;
+        }
+    }
+
+    /**
+     * The coordinator's side of one worker's connection.
+     */
+    class Connection {
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        // The unit being searched, or null when idle.
+        Unit unit;
+
+        // True while a STEAL is unanswered, and after a NO_SPLIT until
+        // the worker gets a new unit.
+        boolean stealing;
+        boolean unsplittable;
+
+        Connection(Socket socket) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+        }
+    }
+
+    // The level being solved.
+    private final GameState start;
+
+    // Counts the work done, including every worker's.
+    private final SearchStats stats;
+
+    // Units nobody has taken yet.
+    private final ArrayDeque<Unit> pending = new ArrayDeque<Unit>();
+
+    // Every worker connection so far.
+    private final List<Connection> connections = new ArrayList<Connection>();
+
+    // Numbers units.
+    private int unitCount;
+
+    // Set once the search is over, with the solution if there is one,
+    // or with why it failed.
+    private boolean finished;
+    private List<Direction> solution;
+    private IOException failure;
+
+    /**
+     * Sets up a search.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     */
+    DistributedSolver(GameState start, SearchStats stats) {
+        this.start = start;
+        this.stats = stats;
+    }
+
+    /**
+     * Solves a level with one worker process per processor.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     * @return      a solution, or null if there is none or the calling
+     *              thread was interrupted
+     * @throws UncheckedIOException if the workers can't be started, or
+     *                              all of them were lost
+     */
+    static List<Direction> solve(GameState start, SearchStats stats) {
+        return solve(start, stats, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Solves a level with a given number of worker processes.
+     *
+     * @param start   the state to solve (not modified)
+     * @param stats   counts the states expanded and pruned
+     * @param workers how many workers to start
+     * @return        same as solve(GameState, SearchStats)
+     * @throws UncheckedIOException same as solve(GameState, SearchStats)
+     */
+    static List<Direction> solve(GameState start, SearchStats stats,
+                                 int workers) {
+        try {
+            return new DistributedSolver(start, stats).run(workers);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Splits the level into units, starts the workers and serves them
+     * until the search is over.
+     *
+     * @param workers how many workers to start
+     * @return        same as solve(GameState, SearchStats)
+     * @throws IOException if the workers can't be started, or every one
+     *                     has exited or disconnected before the search
+     *                     is over
+     */
+    List<Direction> run(int workers) throws IOException {
+        List<Direction> early = splitStart(workers * UNITS_PER_WORKER);
+        if (early != null || this.pending.isEmpty())
+            return early;
+
+        List<Process> processes = new ArrayList<Process>();
+        try (ServerSocket server = new ServerSocket(0, 0,
+                InetAddress.getLoopbackAddress())) {
+
+            // Start the workers, then serve each on its own thread.
+            String java = System.getProperty("java.home") + File.separator
+                        + "bin" + File.separator + "java";
+            for (int i = 0; i < workers; i++)
+                processes.add(new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"), "SolverWorker",
+                    server.getInetAddress().getHostAddress(),
+                    String.valueOf(server.getLocalPort()))
+                    .inheritIO().start());
+
+            Thread acceptor = new Thread(() -> accept(server),
+                                         "streamline-coordinator");
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            // Wait for the result, giving up once no worker is left,
+            // connected or still starting.
+            synchronized (this) {
+                while (!this.finished) {
+                    wait(WORKER_CHECK_INTERVAL);
+                    if (!this.finished && this.connections.isEmpty()
+                            && !anyAlive(processes))
+                        fail(new IOException(
+                            "All solver workers were lost"));
+                }
+                if (this.failure != null)
+                    throw this.failure;
+                return this.solution;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            stopAll();
+            for (Process process : processes) {
+                try {
+                    process.waitFor(WORKER_EXIT_TIMEOUT,
+                                    java.util.concurrent.TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Expands the start breadth first, one macro-move at a time, until
+     * there are enough subtrees to hand out.
+     *
+     * @param wanted the number of units to aim for
+     * @return       a solution if one turned up along the way, else null
+     */
+    private List<Direction> splitStart(int wanted) {
+        if (this.start.levelPassed)
+            return new ArrayList<Direction>();
+
+        MacroMoveGraph graph = new MacroMoveGraph(this.start);
+        Reachability reach = new Reachability();
+        HashSet<StateSignature> seen = new HashSet<StateSignature>();
+
+        List<Unit> layer = new ArrayList<Unit>();
+        layer.add(new Unit(0, new ArrayList<Direction>(), this.start));
+        while (!layer.isEmpty() && layer.size() < wanted) {
+            List<Unit> next = new ArrayList<Unit>();
+            for (Unit unit : layer) {
+                this.stats.nodesExpanded++;
+                for (MacroMoveGraph.MacroMove macro :
+                        graph.macroMovesFrom(unit.state)) {
+                    List<Direction> prefix =
+                        new ArrayList<Direction>(unit.prefix);
+                    prefix.addAll(macro.moves);
+                    if (macro.end.levelPassed)
+                        return prefix;
+                    if (!seen.add(StateSignature.of(macro.end)))
+                        continue;
+                    if (!reach.canReachGoal(macro.end)) {
+                        this.stats.statesPruned++;
+                        continue;
+                    }
+                    next.add(new Unit(0, prefix, macro.end));
+                }
+            }
+            layer = next;
+        }
+
+        for (Unit unit : layer)
+            this.pending.add(new Unit(this.unitCount++, unit.prefix,
+                                      unit.state));
+        return null;
+    }
+
+    /**
+     * Accepts worker connections, serving each on its own thread.
+     *
+     * @param server the coordinator's socket
+     */
+    private void accept(ServerSocket server) {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                Connection connection = new Connection(socket);
+                synchronized (this) {
+                    this.connections.add(connection);
+                    if (this.finished)
+                        send(connection, STOP);
+                }
+                Thread thread = new Thread(() -> serve(connection, socket),
+                                           "streamline-coordinator-worker");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // The socket was closed at the end of the search.
+        }
+    }
+
+    /**
+     * Handles one worker's messages until it disconnects.
+     *
+     * @param connection the worker
+     * @param socket     its socket
+     */
+    private void serve(Connection connection, Socket socket) {
+        try {
+            while (true) {
+                int code = connection.in.readUnsignedByte();
+                synchronized (this) {
+                    handle(connection, code);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                lost(connection);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+
+    /**
+     * Handles one message from a worker.
+     *
+     * @param connection the worker
+     * @param code       the message code (its body is still to be read)
+     */
+    private void handle(Connection connection, int code) throws IOException {
+        DataInputStream in = connection.in;
+        switch (code) {
+            case READY:
+                break;
+            case FOUND: {
+                Unit unit = unit(connection, in.readInt());
+                this.stats.nodesExpanded += in.readLong();
+                List<Direction> found = new ArrayList<Direction>(unit.prefix);
+                found.addAll(readMoves(in));
+                finish(found);
+                return;
+            }
+            case EXHAUSTED: {
+                unit(connection, in.readInt());
+                this.stats.nodesExpanded += in.readLong();
+                connection.unit = null;
+
+                // A STEAL still on its way gets a NO_SPLIT NO_UNIT.
+                connection.stealing = false;
+                break;
+            }
+            case SPLIT: {
+                Unit unit = unit(connection, in.readInt());
+                List<Direction> prefix = new ArrayList<Direction>(unit.prefix);
+                prefix.addAll(readMoves(in));
+                GameState state = SessionRecorder.readHeader(in, "worker");
+                this.pending.add(new Unit(this.unitCount++, prefix, state));
+                connection.stealing = false;
+                break;
+            }
+            case NO_SPLIT: {
+
+                // Ignore answers to a STEAL about an earlier unit.
+                int id = in.readInt();
+                if (connection.unit == null || connection.unit.id != id)
+                    break;
+                connection.stealing = false;
+                connection.unsplittable = true;
+                break;
+            }
+            default:
+                throw new IOException("Unknown message " + code);
+        }
+        balance();
+    }
+
+    /**
+     * Checks that a message is about the worker's current unit.
+     *
+     * @param connection the worker
+     * @param id         the unit named in the message
+     * @return           the unit
+     */
+    private Unit unit(Connection connection, int id) throws IOException {
+        if (connection.unit == null || connection.unit.id != id)
+            throw new IOException("Message about unit " + id
+                                  + ", which the worker doesn't have");
+        return connection.unit;
+    }
+
+    /**
+     * Hands pending units to idle workers, asks busy workers to split if
+     * some are idle with nothing pending, and notices when the search has
+     * run out of work.
+     */
+    private void balance() throws IOException {
+        if (this.finished)
+            return;
+
+        int idle = 0;
+        int busy = 0;
+        for (Connection connection : this.connections) {
+            if (connection.unit == null && !this.pending.isEmpty()) {
+                connection.unit = this.pending.poll();
+                connection.unsplittable = false;
+                connection.out.writeByte(WORK);
+                connection.out.writeInt(connection.unit.id);
+                SessionRecorder.writeHeader(connection.out,
+                                            connection.unit.state);
+                connection.out.flush();
+            }
+            if (connection.unit == null)
+                idle++;
+            else
+                busy++;
+        }
+
+        // Every unit has been searched without finding a solution.
+        if (busy == 0 && this.pending.isEmpty()) {
+            finish(null);
+            return;
+        }
+
+        // One steal per idle worker is enough to keep everyone fed.
+        for (Connection connection : this.connections) {
+            if (connection.stealing)
+                idle--;
+        }
+        for (Connection connection : this.connections) {
+            if (idle <= 0)
+                break;
+            if (connection.unit != null && !connection.stealing
+                    && !connection.unsplittable) {
+                connection.stealing = true;
+                send(connection, STEAL);
+                idle--;
+            }
+        }
+    }
+
+    /**
+     * Handles a worker that went away: its unit goes back to pending. If
+     * it was the last one connected, run() decides whether others are
+     * still to come.
+     *
+     * @param connection the worker
+     */
+    private void lost(Connection connection) {
+        this.connections.remove(connection);
+        if (connection.unit != null && !this.finished)
+            this.pending.addFirst(connection.unit);
+        connection.unit = null;
+
+        if (this.connections.isEmpty()) {
+            notifyAll();
+            return;
+        }
+        try {
+            balance();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ends the search and wakes up run().
+     *
+     * @param found the solution, or null if there is none
+     */
+    private void finish(List<Direction> found) {
+        if (this.finished)
+            return;
+        this.finished = true;
+        this.solution = found;
+        notifyAll();
+    }
+
+    /**
+     * Ends the search without an answer and wakes up run().
+     *
+     * @param cause why the search couldn't finish
+     */
+    private void fail(IOException cause) {
+        if (this.finished)
+            return;
+        this.failure = cause;
+        finish(null);
+    }
+
+    /**
+     * @param processes the worker processes started
+     * @return          true if any of them is still running
+     */
+    private static boolean anyAlive(List<Process> processes) {
+        for (Process process : processes) {
+            if (process.isAlive())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells every worker to exit.
+     */
+    private synchronized void stopAll() {
+        finish(null);
+        for (Connection connection : this.connections)
+            send(connection, STOP);
+    }
+
+    /**
+     * Sends a message with no body, ignoring workers that went away.
+     *
+     * @param connection the worker
+     * @param code       the message code
+     */
+    private static void send(Connection connection, int code) {
+        try {
+            connection.out.writeByte(code);
+            connection.out.flush();
+        } catch (IOException e) {
+            // Noticed by the worker's serving thread.
+        }
+    }
+
+    /**
+     * Writes moves as a count followed by a byte per move.
+     *
+     * @param out   the stream to write to
+     * @param moves the moves
+     */
+    static void writeMoves(DataOutputStream out, List<Direction> moves)
+            throws IOException {
+        out.writeInt(moves.size());
+        for (Direction dir : moves)
+            out.writeByte(dir.getRotationCount());
+    }
+
+    /**
+     * Reads moves written by writeMoves().
+     *
+     * @param in the stream to read from
+     * @return   the moves
+     */
+    static List<Direction> readMoves(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Direction> moves = new ArrayList<Direction>(count);
+        for (int i = 0; i < count; i++)
+            moves.add(Direction.values()[in.readUnsignedByte()]);
+        return moves;
+    }
+
+    /**
+     * Solves a level from the command line and prints the solution.
+     *
+     * @param args the level, and optionally the number of workers
+     */
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        GameState start = new Streamline(args[0]).currentState;
+        if (start == null) {
+            System.out.printf("Could not load %s. Exiting..\n", args[0]);
+            return;
+        }
+        int workers = args.length == 2 ? Integer.parseInt(args[1])
+                    : Runtime.getRuntime().availableProcessors();
+
+        SearchStats stats = new SearchStats();
+        long begin = System.nanoTime();
+        List<Direction> solution = solve(start, stats, workers);
+        long elapsed = System.nanoTime() - begin;
+
+        System.out.println(solution == null ? "No solution found."
+                                            : "Solution: " + solution);
+        System.out.printf("%d workers, %d states expanded in %.3f s\n",
+            workers, stats.nodesExpanded, elapsed / 1e9);
+    }
+}
@@ -0,0 +1,456 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A breadth-first solver that keeps its states on disk instead of in memory,
+ * for levels with more states than fit in RAM. Like BreadthFirstSolver it
+ * finds a shortest solution, or proves there is none.
+ *
+ * Each layer of the search (the states first reached after the same number
+ * of moves) is a file of packed states in sorted order: the player's cell,
+ * then the trail as a bit set, as a fixed number of longs. A layer is built
+ * by expanding the one before it into sorted runs of at most runRecords
+ * states, then streaming a merge of the runs that drops duplicates and any
+ * state already in an earlier layer (also sorted, so one pass over each).
+ *
+ * Since only states are stored, not how they were reached, the path is
+ * rebuilt at the end by scanning back through the layers for a state that
+ * moves to the one after it. All files live in a temporary directory that
+ * is removed when the search ends.
+ */
+public class ExternalBfsSolver {
+
+    // States sorted in memory before being written out as a run.
+    static final int DEFAULT_RUN_RECORDS = 1 << 16;
+
+    // Size of each file's read or write buffer.
+    static final int BUFFER_BYTES = 1 << 16;
+
+    // Bytes per long in the files.
+    static final int LONG_BYTES = Long.SIZE / Byte.SIZE;
+
+    // Orders packed states, long by long.
+    static final Comparator<long[]> RECORD_ORDER = (a, b) -> {
+        for (int i = 0; i < a.length; i++) {
+            int order = Long.compare(a[i], b[i]);
+            if (order != 0)
+                return order;
+        }
+        return 0;
+    };
+
+    /**
+     * Reads packed states from a file through a buffered channel.
+     */
+    static class RecordReader implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+        // The last state read, or null once the file is used up.
+        long[] current;
+
+        /**
+         * Opens a file and reads its first state.
+         *
+         * @param file         the file
+         * @param recordLength longs per state
+         */
+        RecordReader(Path file, int recordLength) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.buffer.flip();
+            this.current = new long[recordLength];
+            advance();
+        }
+
+        /**
+         * Reads the next state into current, or sets current to null.
+         */
+        void advance() throws IOException {
+            for (int i = 0; i < this.current.length; i++) {
+                if (this.buffer.remaining() < LONG_BYTES) {
+                    this.buffer.compact();
+                    while (this.channel.read(this.buffer) > 0
+                            && this.buffer.position() < LONG_BYTES) {
+                        // Keep reading until a whole long is in.
+                    }
+                    this.buffer.flip();
+                    if (this.buffer.remaining() < LONG_BYTES) {
+                        this.current = null;
+                        return;
+                    }
+                }
+                this.current[i] = this.buffer.getLong();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Writes packed states to a file through a buffered channel.
+     */
+    static class RecordWriter implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+        // The number of states written.
+        long count;
+
+        /**
+         * Creates (or truncates) a file to write to.
+         *
+         * @param file the file
+         */
+        RecordWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Writes one state.
+         *
+         * @param record the state
+         */
+        void write(long[] record) throws IOException {
+            for (long value : record) {
+                if (this.buffer.remaining() < LONG_BYTES)
+                    flush();
+                this.buffer.putLong(value);
+            }
+            this.count++;
+        }
+
+        /**
+         * Writes out everything buffered.
+         */
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+            this.buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            this.channel.close();
+        }
+    }
+
+    // The level being solved.
+    private final GameState start;
+
+    // Counts the work done.
+    private final SearchStats stats;
+
+    // Where the layer and run files go.
+    private final Path directory;
+
+    // States sorted in memory per run, and longs per state.
+    private final int runRecords;
+    private final int recordLength;
+
+    // Drops states that can no longer reach the goal.
+    private final Reachability reach = new Reachability();
+
+    /**
+     * Sets up a search.
+     *
+     * @param start      the state to solve (not modified)
+     * @param stats      counts the states expanded and pruned
+     * @param directory  an empty directory for the search's files
+     * @param runRecords states sorted in memory per run
+     */
+    ExternalBfsSolver(GameState start, SearchStats stats, Path directory,
+                      int runRecords) {
+        this.start = start;
+        this.stats = stats;
+        this.directory = directory;
+        this.runRecords = runRecords;
+        int cells = start.getHeight() * start.getWidth();
+        this.recordLength = 1 + StateSignature.newBits(cells).length;
+    }
+
+    /**
+     * Searches for a shortest solution, keeping states in a temporary
+     * directory.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     * @return      a shortest solution, or null if there is none or the
+     *              calling thread was interrupted
+     * @throws UncheckedIOException if the files can't be written or read
+     */
+    static List<Direction> solve(GameState start, SearchStats stats) {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("streamline-bfs");
+            return new ExternalBfsSolver(start, stats, directory,
+                                         DEFAULT_RUN_RECORDS).solve();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Runs the search.
+     *
+     * @return same as solve(GameState, SearchStats)
+     */
+    List<Direction> solve() throws IOException {
+        if (this.start.levelPassed)
+            return new ArrayList<Direction>();
+
+        try (RecordWriter first = new RecordWriter(layerFile(0))) {
+            first.write(pack(StateSignature.of(this.start)));
+        }
+
+        for (int depth = 0; ; depth++) {
+            List<Path> runs = new ArrayList<Path>();
+            List<long[]> pending = new ArrayList<long[]>();
+
+            // Expand this layer into sorted runs.
+            try (RecordReader layer = new RecordReader(layerFile(depth),
+                                                       this.recordLength)) {
+                for (; layer.current != null; layer.advance()) {
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
+
+                    GameState state = unpack(layer.current);
+                    this.stats.nodesExpanded++;
+
+                    for (Direction dir : Direction.values()) {
+                        GameState copy = new GameState(state);
+                        copy.move(dir);
+
+                        // The player didn't move, so nothing changed.
+                        if (copy.playerRow == state.playerRow
+                                && copy.playerCol == state.playerCol)
+                            continue;
+
+                        if (copy.levelPassed) {
+                            List<Direction> solution =
+                                pathTo(depth, layer.current.clone());
+                            solution.add(dir);
+                            return solution;
+                        }
+
+                        if (!this.reach.canReachGoal(copy)) {
+                            this.stats.statesPruned++;
+                            continue;
+                        }
+
+                        pending.add(pack(StateSignature.of(copy)));
+                        if (pending.size() == this.runRecords) {
+                            runs.add(writeRun(pending, runs.size()));
+                            pending.clear();
+                        }
+                    }
+                }
+            }
+            if (!pending.isEmpty())
+                runs.add(writeRun(pending, runs.size()));
+
+            // Merge the runs into the next layer; nothing new means every
+            // reachable state has been tried.
+            long count = mergeRuns(runs, depth + 1);
+            for (Path run : runs)
+                Files.delete(run);
+            if (count == 0)
+                return null;
+        }
+    }
+
+    /**
+     * Sorts states, drops duplicates, and writes them out as a run.
+     *
+     * @param records the states (reordered)
+     * @param number  numbers the run file
+     * @return        the run file
+     */
+    private Path writeRun(List<long[]> records, int number)
+            throws IOException {
+        records.sort(RECORD_ORDER);
+        Path file = this.directory.resolve("run-" + number);
+        try (RecordWriter run = new RecordWriter(file)) {
+            long[] previous = null;
+            for (long[] record : records) {
+                if (previous != null && Arrays.equals(previous, record))
+                    continue;
+                run.write(record);
+                previous = record;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Merges sorted runs into a layer, keeping one copy of each state and
+     * leaving out states that are in an earlier layer.
+     *
+     * @param runs  the runs
+     * @param depth the new layer's depth
+     * @return      the number of states in the new layer
+     */
+    private long mergeRuns(List<Path> runs, int depth) throws IOException {
+        PriorityQueue<RecordReader> queue = new PriorityQueue<RecordReader>(
+            Math.max(1, runs.size()),
+            (a, b) -> RECORD_ORDER.compare(a.current, b.current));
+        List<RecordReader> earlier = new ArrayList<RecordReader>();
+
+        try (RecordWriter layer = new RecordWriter(layerFile(depth))) {
+            for (Path run : runs) {
+                RecordReader reader = new RecordReader(run, this.recordLength);
+                if (reader.current != null)
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            for (int i = 0; i < depth; i++)
+                earlier.add(new RecordReader(layerFile(i), this.recordLength));
+
+            long[] previous = null;
+            while (!queue.isEmpty()) {
+                RecordReader reader = queue.poll();
+                long[] record = reader.current.clone();
+
+                reader.advance();
+                if (reader.current != null)
+                    queue.add(reader);
+                else
+                    reader.close();
+
+                if (previous != null && Arrays.equals(previous, record))
+                    continue;
+                previous = record;
+                if (!seenEarlier(earlier, record))
+                    layer.write(record);
+            }
+            return layer.count;
+        } finally {
+            for (RecordReader reader : queue)
+                reader.close();
+            for (RecordReader reader : earlier)
+                reader.close();
+        }
+    }
+
+    /**
+     * Checks whether a state is in any earlier layer. States must be
+     * checked in sorted order, since each layer is only read forward.
+     *
+     * @param earlier a reader per earlier layer
+     * @param record  the state
+     * @return        true if an earlier layer has it
+     */
+    private static boolean seenEarlier(List<RecordReader> earlier,
+                                       long[] record) throws IOException {
+        for (RecordReader reader : earlier) {
+            while (reader.current != null
+                    && RECORD_ORDER.compare(reader.current, record) < 0)
+                reader.advance();
+            if (reader.current != null
+                    && RECORD_ORDER.compare(reader.current, record) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the moves to a state by scanning each earlier layer for a
+     * state with a move to the one after it.
+     *
+     * @param depth  the state's layer
+     * @param record the state
+     * @return       the moves from the start to it
+     */
+    private List<Direction> pathTo(int depth, long[] record)
+            throws IOException {
+        List<Direction> path = new ArrayList<Direction>();
+        GameState target = unpack(record);
+
+        for (int i = depth - 1; i >= 0; i--) {
+            GameState found = null;
+            try (RecordReader layer = new RecordReader(layerFile(i),
+                                                       this.recordLength)) {
+                for (; found == null && layer.current != null;
+                        layer.advance()) {
+                    GameState state = unpack(layer.current);
+                    for (Direction dir : Direction.values()) {
+                        GameState copy = new GameState(state);
+                        copy.move(dir);
+                        if (copy.equals(target)) {
+                            path.add(dir);
+                            found = state;
+                            break;
+                        }
+                    }
+                }
+            }
+            target = found;
+        }
+
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * @param depth a layer's depth
+     * @return      the file that layer is stored in
+     */
+    private Path layerFile(int depth) {
+        return this.directory.resolve("layer-" + depth);
+    }
+
+    /**
+     * Packs a state as its player cell followed by its trail bits.
+     *
+     * @param signature the state
+     * @return          the packed state
+     */
+    private long[] pack(StateSignature signature) {
+        long[] record = new long[this.recordLength];
+        record[0] = signature.player;
+        System.arraycopy(signature.bits, 0, record, 1, signature.bits.length);
+        return record;
+    }
+
+    /**
+     * Rebuilds a packed state.
+     *
+     * @param record the packed state
+     * @return       the state
+     */
+    private GameState unpack(long[] record) {
+        return new StateSignature((int) record[0],
+            Arrays.copyOfRange(record, 1, record.length)).toState(this.start);
+    }
+
+    /**
+     * Deletes a directory and the files in it, ignoring failures.
+     *
+     * @param directory the directory, or null
+     */
+    private static void deleteDirectory(Path directory) {
+        if (directory == null)
+            return;
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
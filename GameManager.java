@@ -18,9 +18,17 @@ public class GameManager{
         "                                        "
         + "the specified directory and playing them in order\n" +
         "> java GameManager <dir/file> --solve - "
-        + "to load levels from file / director then auto play them\n";
-
-    static final String SOLVE_TOKEN = "--solve";
+        + "to load levels from file / director then auto play them\n" +
+        "> java GameManager <dir/file> --solve-bidir - "
+        + "same, but search from both the start and the goal\n" +
+        "> java GameManager <dir/file> --solve-ida - "
+        + "same, but find a shortest solution in little memory\n" +
+        "> java GameManager <dir/file> --solve-bfs - "
+        + "same, but find a shortest solution breadth first\n" +
+        "> java GameManager <dir/file> --solve-external - "
+        + "same, but keep the search on disk\n" +
+        "> java GameManager <dir/file> --solve-distributed - "
+        + "same, but split the search over worker processes\n";
 
     // how long to pause between each move in auto solve, ms
     static final int PAUSE_DURATION = 500;
@@ -37,9 +45,20 @@ public class GameManager{
             return;
         }
 
+        // which solver to auto play with, if any
+        SolverMode mode = null;
+        if (args.length == 2) {
+            mode = SolverMode.fromToken(args[1]);
+            if (mode == null) {
+                System.out.print(USAGE);
+                return;
+            }
+        }
+
         if (args.length == 0) {
             System.out.println("Starting a default-sized random game..");
             Streamline game = new Streamline();
+            SessionRecorder.attachIfEnabled(game);
             game.play();   
             return;
         }
@@ -56,8 +75,9 @@ public class GameManager{
         if (!file.isDirectory()) {
             System.out.printf("Loading single game from file %s..\n", args[0]);
             Streamline game = new Streamline(args[0]);
-            if (args.length == 2 && SOLVE_TOKEN.equals(args[1]))
-                solve(game);
+            SessionRecorder.attachIfEnabled(game);
+            if (mode != null)
+                solve(game, mode);
             else
                 game.play();   
             return;
@@ -76,9 +96,10 @@ public class GameManager{
             System.out.printf("Loading game %d/%d from file %s..\n",
                 i+1, subfiles.length, subfile.toString());
             Streamline game = new Streamline(subfile.toString());
+            SessionRecorder.attachIfEnabled(game);
 
-            if (args.length == 2 && SOLVE_TOKEN.equals(args[1]))
-                solve(game);
+            if (mode != null)
+                solve(game, mode);
             else
                 game.play();            
         }       
@@ -89,11 +110,12 @@ public class GameManager{
      * Look for a solution, then autoplay the game.
      * 
      * @param game the game we want to try to solve
+     * @param mode the solver to look for the solution with
      */
-    static void solve(Streamline game) {
+    static void solve(Streamline game, SolverMode mode) {
         System.out.println("Looking for solution for the game...");
 
-        List<Direction> solution = findSolution(game.currentState);
+        List<Direction> solution = findCachedSolution(game.currentState, mode);
 
         if (solution == null) {
             System.out.println("No solution found.");
@@ -114,6 +136,64 @@ public class GameManager{
         System.out.println("Level passed!");
     }
 
+    /**
+     * Look up the solution for a state in the default SolutionCache, and
+     * only search for one (then cache it) if it hasn't been solved before.
+     * 
+     * @param start_state  the start state of game we want to solve
+     * @return             same as findSolution()
+     */
+    static List<Direction> findCachedSolution(GameState start_state) {
+        return findCachedSolution(start_state, SolverMode.DFS);
+    }
+
+    /**
+     * Same as findCachedSolution(GameState), but with the given solver.
+     * Each solver's solutions are cached separately.
+     * 
+     * @param start_state  the start state of game we want to solve
+     * @param mode         the solver to search with
+     * @return             same as findSolution()
+     */
+    static List<Direction> findCachedSolution(GameState start_state,
+                                              SolverMode mode) {
+        SolutionCache cache = SolutionCache.getDefault();
+        String key = SolutionCache.keyOf(start_state, mode);
+
+        // a cached "unsolvable" comes back as null, same as a failed search;
+        // a cached solution is replayed first, and one that doesn't pass
+        // the level (e.g. a damaged cache line) is thrown away
+        if (cache.contains(key)) {
+            List<Direction> cached = cache.get(key);
+            if (cached == null || passes(start_state, cached))
+                return cached;
+            cache.remove(key);
+        }
+
+        List<Direction> solution = findSolution(start_state, mode);
+
+        // an interrupted search proves nothing, so don't cache it
+        if (Thread.currentThread().isInterrupted())
+            return null;
+
+        cache.put(key, solution);
+        return solution;
+    }
+
+    /**
+     * Check a solution by playing it on a copy of a state.
+     * 
+     * @param start_state  the state the solution starts from
+     * @param solution     the moves to make
+     * @return             true if the moves pass the level
+     */
+    static boolean passes(GameState start_state, List<Direction> solution) {
+        GameState state = new GameState(start_state);
+        for (Direction direction : solution)
+            state.move(direction);
+        return state.levelPassed;
+    }
+
     /**
      * Recursively perform a DFS to look for a list of direction
      * that we can move towards to result in a level being passed.
@@ -121,46 +201,121 @@ public class GameManager{
      * @param start_state  the start state of game we want to solve
      * @return             if solution is found, a list of movement required
      *                     to go from start_state to the solved state
-     *                     if solution not found, null
+     *                     if solution not found, or the calling thread was
+     *                     interrupted, null
      */
     static List<Direction> findSolution(GameState start_state) {
+        return findSolution(start_state, SolverMode.DFS);
+    }
 
-        final Direction[] all_dirs = {
-            Direction.UP, 
-            Direction.RIGHT, 
-            Direction.DOWN, 
-            Direction.LEFT
-        };
+    /**
+     * Look for a solution with the given solver.
+     * 
+     * @param start_state  the start state of game we want to solve
+     * @param mode         the solver to search with
+     * @return             same as findSolution(GameState)
+     */
+    static List<Direction> findSolution(GameState start_state,
+                                        SolverMode mode) {
+
+        // time the whole search for flight recordings
+        StreamlineEvents.SolveEvent event = new StreamlineEvents.SolveEvent();
+        event.begin();
+
+        SearchStats stats = new SearchStats();
+        List<Direction> solution;
+        switch (mode) {
+            case BIDIRECTIONAL:
+                solution = BidirectionalSolver.solve(start_state, stats);
+                break;
+            case IDA_STAR:
+                solution = IdaStarSolver.solve(start_state, stats);
+                break;
+            case BFS:
+                solution = BreadthFirstSolver.solve(start_state, stats);
+                break;
+            case EXTERNAL_BFS:
+                solution = ExternalBfsSolver.solve(start_state, stats);
+                break;
+            case DISTRIBUTED:
+                solution = DistributedSolver.solve(start_state, stats);
+                break;
+            default:
+                solution = findSolution(start_state, stats,
+                                        new Reachability(),
+                                        new MacroMoveGraph(start_state));
+
+                // the recursion builds the solution last move first
+                if (solution != null)
+                    Collections.reverse(solution);
+        }
+
+        if (event.shouldCommit()) {
+            event.solver = mode.getLabel();
+            event.boardHeight = start_state.getHeight();
+            event.boardWidth = start_state.getWidth();
+            event.nodesExpanded = stats.nodesExpanded;
+            event.statesPruned = stats.statesPruned;
+            event.solved = solution != null;
+            event.solutionLength = solution == null ? 0 : solution.size();
+            event.commit();
+        }
+        return solution;
+    }
+
+    /**
+     * The recursive part of findSolution().
+     * 
+     * @param start_state  the state to search from
+     * @param stats        counts the states expanded and pruned
+     * @param reach        flood fill reused by every call of one search
+     * @param graph        the level's forced moves, collapsed
+     * @return             same as findSolution(), except that the moves
+     *                     are in reverse order, so each level of the
+     *                     recursion can add its own moves to the end
+     *                     rather than shifting the whole list along
+     */
+    private static List<Direction> findSolution(GameState start_state,
+                                                SearchStats stats,
+                                                Reachability reach,
+                                                MacroMoveGraph graph) {
 
         // base case, the gamestate is already solved, no movement necessary
         // return an empty list
         if (start_state.levelPassed)
             return new ArrayList<Direction>();
 
-        // for each direction, make a copy of the game state and move it
-        // 
-        // if after move, the state stays the same, then move was meaningless
-        // skip 
-        // else we changed to a new state, recursively find the solution 
-        // starting from the changed state 
-        for (int i=0; i<all_dirs.length; i++){
-            Direction dir_to_move = all_dirs[i];
+        // give up quickly if whoever asked (e.g. a GUI hint) lost interest
+        if (Thread.currentThread().isInterrupted())
+            return null;
+
+        // the trail may have cut the player off from the goal, in which
+        // case nothing below this state can be a solution
+        if (!reach.canReachGoal(start_state)) {
+            stats.statesPruned++;
+            return null;
+        }
 
-            GameState copy = new GameState(start_state);
-            copy.move(dir_to_move);
+        stats.nodesExpanded++;
 
-            // if move is meaningless, skip this direction
-            if (copy.equals(start_state)) continue;
+        // for each direction that moves the player, the macro-move makes
+        // that move plus any forced moves after it (meaningless moves and
+        // dead ends are already left out), then recursively find the
+        // solution starting from where it ends
+        for (MacroMoveGraph.MacroMove macro :
+                graph.macroMovesFrom(start_state)) {
 
             // recursively find the solution 
-            List<Direction> solution = findSolution(copy);
+            List<Direction> solution =
+                findSolution(macro.end, stats, reach, graph);
 
             // if it returns null, there's no solution in this path
             if (solution == null) continue;
 
-            // there is a solution, append dir_to_move to the front
-            // then return up
-            solution.add(0, dir_to_move);
+            // there is a solution, append the macro-move's moves to the
+            // end, last move first, then return up
+            for (int i = macro.moves.size() - 1; i >= 0; i--)
+                solution.add(macro.moves.get(i));
             return solution;
         }
 
@@ -23,11 +23,17 @@ import java.util.*;
  * available at the top of the class to define the board's "pieces" and
  * keep information behind the scenes about the board, the player, the
  * goal, and the state of level completion.
+ *
+ * The parts of the board that never change during a level (its size,
+ * obstacles and goal) live in a LevelLayout shared by every state of
+ * the level; a GameState itself only holds the player and a bit set
+ * of its trail. charAt() puts the two back together, one cell at a
+ * time, as the familiar board characters.
  */
 public class GameState {
 
-    // Used to populate char[][] board below and to display the
-    // current state of play.
+    // Used by charAt() below to describe each cell and to display
+    // the current state of play.
     final static char PLAYER_CHAR = '@';
     final static char GOAL_CHAR = 'G';
     final static char SPACE_CHAR = ' ';
@@ -37,17 +43,16 @@ public class GameState {
     final static char HORIZONTAL_BORDER_CHAR = '-';
     final static char SIDE_BORDER_CHAR = '|';
 
-    // This represents a 2D map of the board.
-    char[][] board;
+    // The board's size, obstacles and goal, shared by the level.
+    LevelLayout layout;
+
+    // One bit per cell (row * width + col), set for trail cells.
+    long[] trail;
 
     // Location of the player.
     int playerRow;
     int playerCol;
 
-    // Location of the goal.
-    int goalRow;
-    int goalCol;
-
     // True means the player completed this level.
     boolean levelPassed;
 
@@ -69,36 +74,59 @@ public class GameState {
         this.playerRow = playerRow;
         this.playerCol = playerCol;
 
-        // Initialize variables indicating goal position.
-        this.goalRow = goalRow;
-        this.goalCol = goalCol;
+        // Initialize an empty board w/ specified height and width
+        // lengths and the goal in place.
+        this.layout = new LevelLayout(height, width, goalRow, goalCol);
+
+        // Nothing has been moved over yet.
+        this.trail = StateSignature.newBits(height * width);
+
+        // If the player is on the goal, then level is completed.
+        this.levelPassed = playerRow == goalRow && playerCol == goalCol;
 
-        // Initialize board w/ specified height and width lengths.
-        this.board = new char[height][width];
+    }
+
+    /**
+     * A constructor that builds a GameState from a 2D map of board
+     * characters, e.g. one read from a save file: OBSTACLE_CHARs
+     * become the level's obstacles and TRAIL_CHARs its trail.
+     * 
+     * @param cells       The board's characters, by row then column.
+     * @param playerRow   Vertical location of the player.
+     * @param playerCol   Horizontal location of the player.
+     * @param goalRow     Vertical location of the goal.
+     * @param goalCol     Horizontal location of the goal.
+     */
+    public GameState(char[][] cells, int playerRow, int playerCol,
+            int goalRow, int goalCol) {
 
-        // Completely fill the board with SPACE_CHARs.
-        for(int i = 0; i < this.board.length; i++) {
-            for(int j = 0; j < this.board[0].length; j++) {
-                this.board[i][j] = SPACE_CHAR;
+        // Fetch the board's dimensions.
+        int height = cells.length;
+        int width = cells[0].length;
+
+        // Sort the board's characters into obstacles and trail.
+        long[] obstacles = StateSignature.newBits(height * width);
+        this.trail = StateSignature.newBits(height * width);
+        for(int i = 0; i < height; i++) {
+            for(int j = 0; j < width; j++) {
+                if(cells[i][j] == OBSTACLE_CHAR) {
+                    StateSignature.set(obstacles, i * width + j);
+                }
+                else if(cells[i][j] == TRAIL_CHAR) {
+                    StateSignature.set(this.trail, i * width + j);
+                }
             }
         }
 
-        // Place the GOAL_CHAR on the board.
-        this.board[this.goalRow][this.goalCol] = GOAL_CHAR;
+        this.layout = new LevelLayout(height, width, goalRow, goalCol,
+                                      obstacles);
 
-        // Place the PLAYER_CHAR on the board.
-        this.board[this.playerRow][this.playerCol] = PLAYER_CHAR;
+        // Initialize variables indicating player position.
+        this.playerRow = playerRow;
+        this.playerCol = playerCol;
 
-        // Begin initializing the level competion flag.
-        if(this.playerRow == this.goalRow &&
-           this.playerCol == this.goalCol) {
-                // If the player is on the goal, then level is completed.
-                this.levelPassed = true;
-        }
-        else {
-            // If the player isn't on the goal, level isn't completed.
-            this.levelPassed = false;
-        }
+        // If the player is on the goal, then level is completed.
+        this.levelPassed = playerRow == goalRow && playerCol == goalCol;
 
     }
 
@@ -115,25 +143,86 @@ public class GameState {
         this.playerRow = other.playerRow;
         this.playerCol = other.playerCol;
 
-        // Initialize variables indicating goal position.
-        this.goalRow = other.goalRow;
-        this.goalCol = other.goalCol;
+        // Share the level's layout; it never changes.
+        this.layout = other.layout;
 
-        // Initialize board w/ specified height and width lengths.
-        this.board = new char[other.board.length][other.board[0].length];
-
-        // Completely fill the board with other board's chars.
-        for(int i = 0; i < this.board.length; i++) {
-            for(int j = 0; j < this.board[0].length; j++) {
-                this.board[i][j] = other.board[i][j];
-            }
-        }
+        // Copy the trail, the only part of the board that changes.
+        this.trail = other.trail.clone();
 
         // Initialize the level competion flag.
         this.levelPassed = other.levelPassed;
 
     }
 
+    /**
+     * @return Rows in the board.
+     */
+    int getHeight() {
+        return this.layout.height;
+    }
+
+    /**
+     * @return Columns in the board.
+     */
+    int getWidth() {
+        return this.layout.width;
+    }
+
+    /**
+     * @return Vertical location of the goal.
+     */
+    int getGoalRow() {
+        return this.layout.goalRow;
+    }
+
+    /**
+     * @return Horizontal location of the goal.
+     */
+    int getGoalCol() {
+        return this.layout.goalCol;
+    }
+
+    /**
+     * Fetches what's on one cell of the board.
+     * 
+     * @param row The cell's row.
+     * @param col The cell's column.
+     * @return    PLAYER_CHAR, TRAIL_CHAR, OBSTACLE_CHAR, GOAL_CHAR
+     *            or SPACE_CHAR.
+     */
+    char charAt(int row, int col) {
+
+        // The player covers whatever is underneath it.
+        if(row == this.playerRow && col == this.playerCol) {
+            return PLAYER_CHAR;
+        }
+
+        int cell = row * this.layout.width + col;
+        if(StateSignature.get(this.trail, cell)) {
+            return TRAIL_CHAR;
+        }
+        if(this.layout.isObstacle(cell)) {
+            return OBSTACLE_CHAR;
+        }
+        if(this.layout.isGoal(row, col)) {
+            return GOAL_CHAR;
+        }
+        return SPACE_CHAR;
+
+    }
+
+    /**
+     * Checks whether a cell could be moved onto: a space or the goal,
+     * not counting the player's own cell.
+     * 
+     * @param cell The cell, as row * width + col.
+     * @return     True if it's neither trail nor obstacle.
+     */
+    boolean isOpen(int cell) {
+        return !StateSignature.get(this.trail, cell)
+            && !this.layout.isObstacle(cell);
+    }
+
     /**
      * Add a specified number of random obstacles onto the game board.
      * 
@@ -147,7 +236,7 @@ public class GameState {
         }
 
         // If count is > board's area, return immediately.
-        if(count > (this.board.length * this.board[0].length)) {
+        if(count > (getHeight() * getWidth())) {
             return;
         }
 
@@ -155,9 +244,9 @@ public class GameState {
         int spacesAvailable = 0;
 
         // Figure out how many available spaces there are on the board.
-        for(int i = 0; i < this.board.length; i++) {
-            for(int j = 0; j < this.board[0].length; j++) {
-                if(this.board[i][j] == SPACE_CHAR) {
+        for(int i = 0; i < getHeight(); i++) {
+            for(int j = 0; j < getWidth(); j++) {
+                if(charAt(i, j) == SPACE_CHAR) {
                     // Increment counter if space character is found.
                     spacesAvailable++;
                 }
@@ -180,14 +269,16 @@ public class GameState {
             Random random = new Random();
 
             // Random board space coordinates will be stored here.
-            int randomRow = random.nextInt(this.board.length);
-            int randomCol = random.nextInt(this.board[0].length);
+            int randomRow = random.nextInt(getHeight());
+            int randomCol = random.nextInt(getWidth());
 
             // Check if coordinates generated are occupied.
-            if(this.board[randomRow][randomCol] == SPACE_CHAR) {
+            if(charAt(randomRow, randomCol) == SPACE_CHAR) {
 
                     // If location in board is vacant, place obstacle.
-                    this.board[randomRow][randomCol] = OBSTACLE_CHAR;
+                    // This changes the level, so it gets a new layout.
+                    this.layout =
+                        this.layout.withObstacle(randomRow, randomCol);
 
                     // Increment counter.
                     randomObstaclesAdded++;
@@ -203,37 +294,35 @@ public class GameState {
      */
     void rotateCounterClockwise() {
 
-        // Create a rotated board to temporarily work with.
-        char[][] rotatedBoard = new char[this.board[0].length]
-                                        [this.board.length];
+        // Fetch the board's dimensions before rotating.
+        int height = getHeight();
+        int width = getWidth();
 
-        // Copy original board's values into the new rotated board.
-        for(int i = 0; i < rotatedBoard.length; i++) {
-            for(int j = 0; j < rotatedBoard[0].length; j++) {
-                rotatedBoard[i][j] =
-                    this.board[j][this.board[0].length - 1 - i];
+        // The layout rotates the obstacles and the goal.
+        this.layout = this.layout.rotatedCounterClockwise();
+
+        // Rotate the trail the same way: (i, j) goes to (width-1-j, i).
+        long[] rotatedTrail = StateSignature.newBits(height * width);
+        for(int i = 0; i < height; i++) {
+            for(int j = 0; j < width; j++) {
+                if(StateSignature.get(this.trail, i * width + j)) {
+                    StateSignature.set(rotatedTrail,
+                                       (width - 1 - j) * height + i);
+                }
             }
         }
 
-        // Update the original board.
-        this.board = rotatedBoard;
+        // Update the original trail.
+        this.trail = rotatedTrail;
 
         // Preserve old player coordinates.
         int playerRowOld = this.playerRow;
         int playerColOld = this.playerCol;
 
-        // Preserve old goal coordinates.
-        int goalRowOld = this.goalRow;
-        int goalColOld = this.goalCol;
-
         // Update player values according to rotated board.
-        this.playerRow = this.board.length - 1 - playerColOld;
+        this.playerRow = width - 1 - playerColOld;
         this.playerCol = playerRowOld;
 
-        // Update goal values according to rotated board.
-        this.goalRow = this.board.length - 1 - goalColOld;
-        this.goalCol = goalRowOld;
-
     }
 
     /**
@@ -245,149 +334,114 @@ public class GameState {
      * @return Nothing. Only used to exit program.
      */
     void moveUp() {
+        move(Direction.UP);
+    }
 
-        // Begin the process of moving the player upwards.
-        for(int i = this.playerRow; i >= 0; i--) {
-
-            // Checker for handling level pre-completion.
-            if(this.levelPassed == true ||
-               this.levelPassed == true &&
-               this.playerRow == this.goalRow &&
-               this.playerCol == this.goalCol ||
-               this.playerRow == this.goalRow &&
-               this.playerCol == this.goalCol) {
-                    return;
-            }
-
-            // If the player hit the topmost edge, snake around the board.
-            if(i - 1 == -1) {
-
-                // Fetch character at the last row of the same column.
-                char isUsed = this.board[this.board.length - 1]
-                                        [this.playerCol];
-
-                // Ensure that the last row of the same column is vacant.
-                if(isUsed == SPACE_CHAR) {
-
-                    // Move player to the other side of the column.
-                    this.playerRow = this.board.length - 1;
-
-                    // Update the board to reflect changes.
-                    this.board[this.playerRow][this.playerCol] = PLAYER_CHAR;
-                    this.board[i][this.playerCol] = TRAIL_CHAR;
-
-                    // Ensure that loop will continue to run as expected.
-                    i = this.playerRow + 1;
-
-                }
-
-                // If that character is the goal, prepare for victory.
-                if(isUsed == GOAL_CHAR) {
-
-                    // Move player to the other side of the column.
-                    this.playerRow = this.goalRow;
-                    this.playerCol = this.goalCol;
+    /**
+     * Moves player in a specified direction until it is stopped by an
+     * obstacle, a trail, or the goal. Like moveUp(), hitting an edge
+     * "snakes" the player around to the opposite end of its row or
+     * column.
+     * 
+     * @param direction The direction that the player wants to move in.
+     */
+    void move(Direction direction) {
+        move(direction, null);
+    }
 
-                    // Update the board to reflect changes.
-                    this.board[this.playerRow][this.playerCol] = PLAYER_CHAR;
-                    this.board[i][this.playerCol] = TRAIL_CHAR;
+    /**
+     * Same as move(Direction), but also records the cells the player
+     * passes through. The player steps straight across the board one
+     * cell at a time (rather than rotating the board and moving up) so
+     * that each cell can be recorded in the original orientation.
+     * 
+     * @param direction The direction that the player wants to move in.
+     * @param path      Gets the start cell and every cell entered
+     *                  appended to it, or null if not needed.
+     */
+    void move(Direction direction, MovePath path) {
+
+        // Time the move for flight recordings.
+        StreamlineEvents.MoveEvent event = new StreamlineEvents.MoveEvent();
+        event.begin();
+
+        // Fetch the board's dimensions and this direction's step.
+        int height = getHeight();
+        int width = getWidth();
+        int goalRow = this.layout.goalRow;
+        int goalCol = this.layout.goalCol;
+        int rowDelta = direction.getRowDelta();
+        int colDelta = direction.getColDelta();
+        int cellsTraversed = 0;
+
+        // The path always starts where the player is.
+        if(path != null) {
+            path.add(this.playerRow, this.playerCol);
+        }
 
-                    // Ensure that loop will continue to run as expected.
-                    i = this.playerRow + 1;
+        // Keep stepping until the level is completed or something blocks.
+        while(this.levelPassed == false &&
+              !(this.playerRow == goalRow &&
+                this.playerCol == goalCol)) {
 
-                    // Indicate that the goal has been reached.
-                    this.levelPassed = true;
+            // Find the next cell, snaking around the edges of the board.
+            int nextRow = (this.playerRow + rowDelta + height) % height;
+            int nextCol = (this.playerCol + colDelta + width) % width;
 
-                }
-                
+            // Only vacant spaces and the goal can be moved onto (on a
+            // one cell wide board, the next cell is the player's own).
+            if(!isOpen(nextRow * width + nextCol) ||
+               (nextRow == this.playerRow && nextCol == this.playerCol)) {
+                break;
             }
 
-            // If the player is NOT against the topmost edge, then
-            // check if the space immediately above is vacant.
-            else if(this.board[i - 1][this.playerCol] == SPACE_CHAR) {
+            // Update the trail to reflect changes.
+            StateSignature.set(this.trail,
+                               this.playerRow * width + this.playerCol);
 
-                // Update the player location if player can move.
-                this.playerRow = i - 1;
+            // Update the player location.
+            this.playerRow = nextRow;
+            this.playerCol = nextCol;
+            cellsTraversed++;
 
-                // Update the board to reflect changes.
-                this.board[this.playerRow][this.playerCol] = PLAYER_CHAR;
-                this.board[i][this.playerCol] = TRAIL_CHAR;
-
-            }
-
-            // If the space immediately above is occupied by an obstacle
-            // or trail, then return immediately.
-            else if(this.board[i - 1][this.playerCol] == OBSTACLE_CHAR ||
-                    this.board[i - 1][this.playerCol] == TRAIL_CHAR) {
-                        return;
+            if(path != null) {
+                path.add(nextRow, nextCol);
             }
 
-            // Check if the space above is occupied by the GOAL.
-            else if(this.board[i - 1][this.playerCol] == GOAL_CHAR) {
-
-                // Update the player location if player can move.
-                this.playerRow = i - 1;
-
-                // Update the board to reflect changes.
-                this.board[this.playerRow][this.playerCol] = PLAYER_CHAR;
-                this.board[i][this.playerCol] = TRAIL_CHAR;
-
-                // Indicate that the level has been completed.
+            // Indicate that the level has been completed.
+            if(nextRow == goalRow && nextCol == goalCol) {
                 this.levelPassed = true;
-
             }
 
         }
-    
+
+        if(event.shouldCommit()) {
+            event.direction = direction.name();
+            event.boardHeight = height;
+            event.boardWidth = width;
+            event.cellsTraversed = cellsTraversed;
+            event.levelPassed = this.levelPassed;
+            event.commit();
+        }
+
     }
 
     /**
-     * Moves player in a specified direction. How this works:
-     * (1) Rotate board by some amount to move player in a direction.
-     * (2) Move up until the player hits some non-space object.
-     * (3) Rotate back to the original board orientation.
+     * Roughly estimates how much heap this GameState takes up, assuming
+     * 16 byte object and array headers and 4 byte references.
      * 
-     * @param direction The direction that the player wants to move in.
+     * @return Estimated size in bytes.
      */
-    void move(Direction direction) {
-
-        // Use switch statement to determine what to do according to
-        // the argument passed into this method.
-        switch(direction) {
-
-            // UP: Simply move upwards.
-            case UP:
-                moveUp();
-                break;
+    long estimateBytes() {
 
-            // RIGHT: Rotate CC, move upwards, re-orient board.
-            case RIGHT:
-                rotateCounterClockwise();
-                moveUp();
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                break;
-
-            // DOWN: Rotate CC twice, move upwards, re-orient board.
-            case DOWN:
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                moveUp();
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                break;
+        // The object itself: header, two references, two ints, a flag.
+        // The layout is shared by the whole level, so isn't counted.
+        long bytes = 16 + 2 * 4 + 2 * 4 + 4;
 
-            // LEFT: Rotate CC three times, move upwards, re-orient board.
-            case LEFT: 
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                rotateCounterClockwise();
-                moveUp();
-                rotateCounterClockwise();
-                break;
+        // The trail's bit set.
+        bytes += 16 + 8L * this.trail.length;
 
-        }
+        return bytes;
 
     }
 
@@ -405,7 +459,7 @@ public class GameState {
         StringBuilder horizontalBorder = new StringBuilder();
 
         // Loop to create a horizontal border of proper length.
-        for(int i = 0; i < (2 * this.board[0].length + 3); i++){
+        for(int i = 0; i < (2 * getWidth() + 3); i++){
             horizontalBorder.append(HORIZONTAL_BORDER_CHAR);
         }
 
@@ -417,15 +471,15 @@ public class GameState {
         gameBoardStringified.append(NEWLINE_CHAR);
 
         // Begin creating GameState's String representation.
-        for(int i = 0; i < board.length; i++) {
+        for(int i = 0; i < getHeight(); i++) {
 
             // Places '|' at the BEGINNING of every BOARD row.
             gameBoardStringified.append(SIDE_BORDER_CHAR);
             gameBoardStringified.append(SPACE_CHAR);
 
             // Place the board and space chars in the appropriate spots.
-            for(int j = 0; j < board[0].length; j++) {
-                gameBoardStringified.append(this.board[i][j]);
+            for(int j = 0; j < getWidth(); j++) {
+                gameBoardStringified.append(charAt(i, j));
                 gameBoardStringified.append(SPACE_CHAR);
             }
             
@@ -482,44 +536,39 @@ public class GameState {
             return false;
         }
 
-        // Check if both objects have differing values for goalRow.
-        if(this.goalRow != ((GameState)other).goalRow) {
-            return false;
-        }
-
-        // Check if both objects have differing values for goalCol.
-        if(this.goalCol != ((GameState)other).goalCol) {
+        // Check if both objects are of differing levels (size,
+        // obstacles or goal).
+        if(!this.layout.equals(((GameState)other).layout)) {
             return false;
         }
 
-        // Check if both objects have differing GameState board heights.
-        if(this.board.length != ((GameState)other).board.length) {
+        // Check if the trails have differing cells.
+        if(!Arrays.equals(this.trail, ((GameState)other).trail)) {
             return false;
         }
 
-        // Check if both objects have differing GameState board widths.
-        if(this.board[0].length != ((GameState)other).board[0].length) {
-            return false;
-        }
-
-        // Check if the board contents have differing chars.
-        for(int i = 0; i < this.board.length; i++) {
-            for(int j = 0; j < this.board[0].length; j++) {
+        // Return true if both objects are equal.
+        return true;
 
-                // Characters at one particular spot on both boards.
-                char thisBoard = this.board[i][j];
-                char thatBoard = ((GameState)other).board[i][j];
+    }
 
-                // Where the character checker itself occurs.
-                if(thisBoard != thatBoard) {
-                    return false;
-                }
+    /**
+     * Override the hashCode() method to match equals(), so GameState
+     * objects can be used as keys of hash based collections.
+     * 
+     * @return A hash over the level, trail, player and level completion.
+     */
+    @Override
+    public int hashCode() {
 
-            }
-        }
+        // Start from the positions and the level completion flag.
+        int hash = this.levelPassed ? 1 : 0;
+        hash = 31 * hash + this.playerRow;
+        hash = 31 * hash + this.playerCol;
+        hash = 31 * hash + this.layout.hashCode();
 
-        // Return true if both objects are equal.
-        return true;
+        // Mix in every cell of the trail.
+        return 31 * hash + Arrays.hashCode(this.trail);
 
     }
 
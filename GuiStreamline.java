@@ -25,12 +25,17 @@ import javafx.scene.shape.*;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javafx.animation.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.event.EventHandler;
 import javafx.event.ActionEvent;
@@ -38,6 +43,8 @@ import javafx.scene.Group;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.paint.*;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
 import javafx.util.Duration;
 
 /**
@@ -59,9 +66,29 @@ public class GuiStreamline extends Application {
     static final double MIDDLE_OFFSET = 0.5;
     static final double DOUBLE_MULTIPLIER = 2;
 
+    // How often the performance HUD is refreshed, in nanoseconds.
+    static final long HUD_REFRESH_NANOS = 250_000_000L;
+
+    // Where the performance HUD is drawn, and its font.
+    static final double HUD_X = 8;
+    static final double HUD_Y = 16;
+    static final String HUD_FONT = "Monospaced";
+    static final double HUD_FONT_SIZE = 12;
+
+    // Bytes per kilobyte, for the HUD.
+    static final double BYTES_PER_KB = 1024;
+
+    // Most key presses held back for the next pulse; extras are dropped.
+    static final int MAX_PENDING_KEYS = 32;
+
     // Animation durations in milliseconds.
     static final double SCALE_TIME = 175;
     static final double FADE_TIME = 250;
+    static final double SLIDE_STEP_TIME = 30;
+
+    // Most cells the slide animation may lag behind the game before
+    // it skips ahead.
+    static final int MAX_SLIDE_BACKLOG = 12;
 
     // Titles and taglines.
     static final String TITLE = "CSE 8b Streamline GUI";
@@ -80,6 +107,7 @@ public class GuiStreamline extends Application {
     static final Color TRAIL_COLOR = Color.web("0f5991");
     static final Color GOAL_COLOR = Color.web("8cd1b4");
     static final Color OBSTACLE_COLOR = Color.web("756f6f");
+    static final Color HINT_COLOR = Color.web("f2c14e");
 
     // Trail radius will be set to this
     // fraction of the size of a board square.
@@ -111,12 +139,58 @@ public class GuiStreamline extends Application {
     // The current level.
     Streamline game;
 
-    // Future levels.
-    ArrayList<Streamline> nextGames;
+    // File names of future levels, parsed only when they're needed.
+    ArrayList<String> nextLevels;
+
+    // The level after the current one, being prepared in the background.
+    CompletableFuture<LevelView> nextLevel;
+
+    // Parses and builds upcoming levels off the FX thread.
+    ExecutorService levelLoader;
 
     // Handles keyboard input.
     MyKeyHandler myKeyHandler;
 
+    // Key presses waiting to be applied on the next pulse, and when
+    // each of them arrived (same order, from System.nanoTime()).
+    ArrayDeque<KeyCode> pendingKeys;
+    long[] pendingKeyTimes;
+
+    // Latency from a key press to the game being updated, from the
+    // game being updated to the scene being updated, and between
+    // animation pulses.
+    LatencyHistogram keyToModel;
+    LatencyHistogram modelToScene;
+    LatencyHistogram framePacing;
+
+    // Time of the last animation pulse and of the last HUD refresh.
+    long lastPulseTime;
+    long lastHudTime;
+
+    // Shows the histograms above, toggled with P.
+    Text performanceHud;
+
+    // Applies pending key presses once per frame.
+    AnimationTimer inputPulse;
+
+    // Cells the player is being animated along, and the index of the
+    // cell it is currently drawn at (or sliding away from).
+    MovePath slidePath;
+    int slideIndex;
+
+    // False once something other than a move (e.g. an undo) changed
+    // the board, so slidePath no longer describes it.
+    boolean slidePathValid;
+
+    // Slides the player one cell along slidePath at a time.
+    TranslateTransition slide;
+
+    // Suggests moves using a solver on a background thread.
+    HintEngine hintEngine;
+
+    // Marks where the suggested move would take the player.
+    RoundedSquare hintRect;
+
     /** 
      * Coverts the given board column and row into scene coordinates.
      * Gives the center of the corresponding tile.
@@ -126,27 +200,61 @@ public class GuiStreamline extends Application {
      * @return scene coordinates as length 2 array where index 0 is x
      */
     public double[] boardIdxToScenePos(int boardCol, int boardRow) {
+        return boardIdxToScenePos(boardCol, boardRow,
+            this.getBoardWidth(), this.getBoardHeight(),
+            this.mainScene.getWidth(), this.mainScene.getHeight());
+    }
+
+    /**
+     * Same as above, but for any board and scene size, so that it can
+     * be used off the FX thread while preparing a level.
+     * 
+     * @param boardCol    a board column to be converted to a scene x
+     * @param boardRow    a board row to be converted to a scene y
+     * @param boardWidth  columns of the board
+     * @param boardHeight rows of the board
+     * @param sceneWidth  width of the scene
+     * @param sceneHeight height of the scene
+     * @return scene coordinates as length 2 array where index 0 is x
+     */
+    static double[] boardIdxToScenePos(int boardCol, int boardRow,
+                                       int boardWidth, int boardHeight,
+                                       double sceneWidth,
+                                       double sceneHeight) {
 
         // Convert the board's column value to the scene's X-coordinate.
-        double sceneX = ((boardCol + MIDDLE_OFFSET) * 
-            (mainScene.getWidth() - 1)) / getBoardWidth();
+        double sceneX = boardIdxToScene(boardCol, boardWidth, sceneWidth);
 
         // Convert the board's row value to the scene's Y-coordinate.
-        double sceneY = ((boardRow + MIDDLE_OFFSET) * 
-            (mainScene.getHeight() - 1)) / getBoardHeight();
+        double sceneY = boardIdxToScene(boardRow, boardHeight, sceneHeight);
 
         // Return the board's positions converted to scene coordinates.
         return new double[]{sceneX, sceneY};
         
     }
 
+    /**
+     * Converts a board column (or row) into the scene x (or y) of the
+     * center of that tile, without allocating anything.
+     * 
+     * @param boardIdx    a board column or row
+     * @param boardLength columns (or rows) of the board
+     * @param sceneLength width (or height) of the scene
+     * @return the scene coordinate
+     */
+    static double boardIdxToScene(int boardIdx, int boardLength,
+                                  double sceneLength) {
+        return ((boardIdx + MIDDLE_OFFSET) * (sceneLength - 1)) /
+            boardLength;
+    }
+
     /**
      * Getter for the width of the current level's board.
      * 
      * @return Current level's board width.
      */
     public int getBoardWidth() {
-        return this.game.currentState.board[0].length;
+        return this.game.currentState.getWidth();
     }
 
     /**
@@ -155,7 +263,7 @@ public class GuiStreamline extends Application {
      * @return Current level's board height.
      */
     public int getBoardHeight() {
-        return this.game.currentState.board.length;
+        return this.game.currentState.getHeight();
     }
 
     /**
@@ -165,14 +273,21 @@ public class GuiStreamline extends Application {
      * @return The smallest side length of some calculated shape.
      */
     public double getSquareSize() {
+        return getSquareSize(this.getBoardWidth(), this.getBoardHeight(),
+            this.mainScene.getWidth(), this.mainScene.getHeight());
+    }
 
-        // Get the dimensions of the scene.
-        double sceneWidth = this.mainScene.getWidth();
-        double sceneHeight = this.mainScene.getHeight();
-
-        // Get the dimensions of the current level's board.
-        double boardWidth = (double)(this.getBoardWidth());
-        double boardHeight = (double)(this.getBoardHeight());
+    /**
+     * Same as above, but for any board and scene size.
+     * 
+     * @param boardWidth  columns of the board
+     * @param boardHeight rows of the board
+     * @param sceneWidth  width of the scene
+     * @param sceneHeight height of the scene
+     * @return The smallest side length of some calculated shape.
+     */
+    static double getSquareSize(int boardWidth, int boardHeight,
+                                double sceneWidth, double sceneHeight) {
 
         // Calculate the exact fitting side length for the shape.
         double shapeWidth = sceneWidth / boardWidth;
@@ -194,67 +309,124 @@ public class GuiStreamline extends Application {
      */
     public void resetGrid() {
 
+        // Time the rebuild for flight recordings.
+        StreamlineEvents.RenderEvent event =
+            new StreamlineEvents.RenderEvent();
+        event.begin();
+
         // Clear levelGroup before rebuilding the grid.
         this.levelGroup.getChildren().clear();
 
-        // Rebuild the grid to an explicit height and width.
-        this.grid = new Shape[this.getBoardHeight()]
-                             [this.getBoardWidth()];
+        // Rebuild the grid into levelGroup.
+        this.grid = buildGrid(
+            this.game.currentState,
+            this.mainScene.getWidth(),
+            this.mainScene.getHeight(),
+            this.levelGroup
+        );
+
+        commitRenderEvent(event, "resetGrid",
+            this.getBoardHeight() * this.getBoardWidth());
+
+    }
+
+    /**
+     * Fills in and commits a RenderEvent, if it is being recorded.
+     * 
+     * @param event         The event, begun before rendering.
+     * @param operation     The name of the operation.
+     * @param shapesUpdated How many shapes were created or changed.
+     */
+    void commitRenderEvent(StreamlineEvents.RenderEvent event,
+                           String operation, int shapesUpdated) {
+
+        if(event.shouldCommit()) {
+            event.operation = operation;
+            event.boardHeight = this.getBoardHeight();
+            event.boardWidth = this.getBoardWidth();
+            event.shapesUpdated = shapesUpdated;
+            event.commit();
+        }
+
+    }
+
+    /**
+     * Creates the trail and obstacle shapes for a board and adds them
+     * to a group. Touches nothing else, so it may run off the FX thread
+     * as long as the group isn't part of a showing scene yet.
+     * 
+     * @param state       The board to build shapes for.
+     * @param sceneWidth  Width of the scene the shapes are sized for.
+     * @param sceneHeight Height of the scene the shapes are sized for.
+     * @param group       The group to add the shapes to.
+     * @return The shapes, with the same dimensions as the board.
+     */
+    static Shape[][] buildGrid(GameState state, double sceneWidth,
+                               double sceneHeight, Group group) {
+
+        // Fetch the dimensions of the board.
+        int boardHeight = state.getHeight();
+        int boardWidth = state.getWidth();
 
-        // Calculate the sizes of all levelGroup shapes.
-        double squareSize = getSquareSize() * SQUARE_FRACTION;
-        double circleSize = getSquareSize() * TRAIL_RADIUS_FRACTION;
+        // Build the grid to an explicit height and width.
+        Shape[][] grid = new Shape[boardHeight][boardWidth];
+
+        // Calculate the sizes of all group shapes.
+        double fitSize = getSquareSize(boardWidth, boardHeight,
+                                       sceneWidth, sceneHeight);
+        double squareSize = fitSize * SQUARE_FRACTION;
+        double circleSize = fitSize * TRAIL_RADIUS_FRACTION;
 
         // Iterate through the board to place the "board pieces" down.
-        for(int i = 0; i < this.getBoardHeight(); i++) {
-            for(int j = 0; j < this.getBoardWidth(); j++) {
+        for(int i = 0; i < boardHeight; i++) {
+            for(int j = 0; j < boardWidth; j++) {
 
                 // Convert this board position to scene coordinates.
-                double[] scenePos = this.boardIdxToScenePos(j, i);
+                double[] scenePos = boardIdxToScenePos(j, i,
+                    boardWidth, boardHeight, sceneWidth, sceneHeight);
 
                 // Add a solid, colored Circle representing
-                // some trail character to levelGroup.
-                if(this.game.currentState.board[i][j] ==
-                    GameState.TRAIL_CHAR) {
-                        this.grid[i][j] = new Circle(
+                // some trail character to the group.
+                if(state.charAt(i, j) == GameState.TRAIL_CHAR) {
+                        grid[i][j] = new Circle(
                             scenePos[0],
                             scenePos[1],
                             circleSize
                         );
-                        this.grid[i][j].setFill(TRAIL_COLOR);
-                        this.levelGroup.getChildren().add(grid[i][j]);
+                        grid[i][j].setFill(TRAIL_COLOR);
                 }
 
                 // Add a solid, colored RoundedSquare representing
-                // some obstacle character to levelGroup.
-                else if(this.game.currentState.board[i][j] ==
-                    GameState.OBSTACLE_CHAR) {
-                        this.grid[i][j] = new RoundedSquare(
+                // some obstacle character to the group.
+                else if(state.charAt(i, j) == GameState.OBSTACLE_CHAR) {
+                        grid[i][j] = new RoundedSquare(
                             scenePos[0],
                             scenePos[1],
                             squareSize
                         );
-                        this.grid[i][j].setFill(OBSTACLE_COLOR);
-                        this.levelGroup.getChildren().add(grid[i][j]);
+                        grid[i][j].setFill(OBSTACLE_COLOR);
                 }
 
                 // Add a transparent Circle representing
                 // some space character (or any position
                 // on the board not occupied by a temporary
-                // ojbect) to levelGroup.
+                // ojbect) to the group.
                 else {
-                        this.grid[i][j] = new Circle(
+                        grid[i][j] = new Circle(
                             scenePos[0],
                             scenePos[1],
                             circleSize
                         );
-                        this.grid[i][j].setFill(Color.TRANSPARENT);
-                        this.levelGroup.getChildren().add(grid[i][j]);
+                        grid[i][j].setFill(Color.TRANSPARENT);
                 }
 
+                group.getChildren().add(grid[i][j]);
+
             }
         }
 
+        return grid;
+
     }
 
     /**
@@ -264,27 +436,37 @@ public class GuiStreamline extends Application {
      */
     public void updateTrailColors() {
 
+        // Time the pass for flight recordings.
+        StreamlineEvents.RenderEvent event =
+            new StreamlineEvents.RenderEvent();
+        event.begin();
+        int shapesUpdated = 0;
+
         // Iterate through the current level's board.
         for(int i = 0; i < this.getBoardHeight(); i++) {
             for(int j = 0; j < this.getBoardWidth(); j++) {
 
                 // Update Circle's fill to transparent
                 // if a space is identified.
-                if(this.game.currentState.board[i][j] ==
+                if(this.game.currentState.charAt(i, j) ==
                     GameState.SPACE_CHAR) {
                         this.grid[i][j].setFill(Color.TRANSPARENT);
+                        shapesUpdated++;
                 }
 
                 // Update Circle's fill to TRAIL_COLOR
                 // if a trail is identified.
-                if(this.game.currentState.board[i][j] ==
+                if(this.game.currentState.charAt(i, j) ==
                     GameState.TRAIL_CHAR) {
                         this.grid[i][j].setFill(TRAIL_COLOR);
+                        shapesUpdated++;
                 }
 
             }
         }
 
+        commitRenderEvent(event, "updateTrailColors", shapesUpdated);
+
     }
     
     /**
@@ -297,40 +479,303 @@ public class GuiStreamline extends Application {
      */
     public void onPlayerMoved(int fromCol, int fromRow,
                               int toCol, int toRow) {
-        
-        // Immediately return if the level has been passed.
-        if(this.game.currentState.levelPassed) {
-            this.onLevelLoaded();
-            this.onLevelFinished();
+
+        // Immediately return if only moves were made and the
+        // position is the same (i.e. nothing changed).
+        if(this.slidePathValid && fromCol == toCol && fromRow == toRow) {
             return;
         }
 
-        // Immediately return if the position is the same.
-        if(fromCol == toCol && fromRow == toRow) {
+        // Any hint (or hint search) was for the position just left.
+        this.clearHint();
+
+        // Slide along the recorded path if it leads to the player.
+        // Once it gets there, the level is finished if it's passed.
+        if(this.slidePathValid && this.slidePath.endsAt(toRow, toCol)) {
+            this.continueSlide();
             return;
         }
 
-        // Update the player's position.
-        double[] playerPos = this.boardIdxToScenePos(toCol,toRow);
-        this.playerRect.setCenterX(playerPos[0]);
-        this.playerRect.setCenterY(playerPos[1]);
+        // Otherwise (e.g. after an undo) jump straight there.
+        this.stopSlide();
+        this.placePlayer(toCol, toRow);
 
         // Update the trail's colors.
         this.updateTrailColors();
 
+        // Immediately move on if the level has been passed.
+        if(this.game.currentState.levelPassed) {
+            this.onLevelFinished();
+        }
+
     }
-    
+
     /**
-     * Helper method to help handle key presses.
+     * Moves the player shape to the center of a tile, dropping any
+     * offset left from a slide.
      * 
-     * @param keyCode The keystroke in question.
+     * @param boardCol The tile's column.
+     * @param boardRow The tile's row.
      */
-    void handleKeyCode(KeyCode keyCode) {
+    void placePlayer(int boardCol, int boardRow) {
+        this.playerRect.setTranslateX(0);
+        this.playerRect.setTranslateY(0);
+        this.playerRect.setCenterX(boardIdxToScene(boardCol,
+            this.getBoardWidth(), this.mainScene.getWidth()));
+        this.playerRect.setCenterY(boardIdxToScene(boardRow,
+            this.getBoardHeight(), this.mainScene.getHeight()));
+    }
+
+    /**
+     * Makes sure the slide animation is running towards the end of
+     * slidePath, which may just have grown. Skips ahead when the
+     * animation has fallen too far behind, so input never waits on it.
+     */
+    void continueSlide() {
+
+        boolean running =
+            this.slide.getStatus() == Animation.Status.RUNNING;
+
+        // Catch up by jumping over the oldest cells.
+        if(this.slidePath.length() - 1 - this.slideIndex >
+            MAX_SLIDE_BACKLOG) {
+
+            // The step in progress is abandoned too.
+            this.slide.stop();
+            running = false;
+
+            while(this.slidePath.length() - 1 - this.slideIndex >
+                MAX_SLIDE_BACKLOG) {
+                    this.advanceSlide();
+            }
+
+        }
+
+        // An animation that is still running will get to the new
+        // cells on its own.
+        if(!running) {
+            this.stepSlide();
+        }
+
+    }
+
+    /**
+     * Animates the player from the cell at slideIndex to the next one
+     * on slidePath, or finishes the slide if there is none. Called
+     * again by the transition each time a step finishes.
+     */
+    void stepSlide() {
+
+        // Wrapping around an edge is a jump; there's nothing to animate.
+        while(this.slideIndex + 1 < this.slidePath.length() &&
+            this.slidePath.isWrap(this.slideIndex + 1)) {
+                this.advanceSlide();
+        }
+
+        // Reached the end of the path.
+        if(this.slideIndex + 1 >= this.slidePath.length()) {
+            this.finishSlide();
+            return;
+        }
+
+        // The cell being left is part of the trail now.
+        this.revealTrail(this.slideIndex);
+
+        // Translate towards the next cell, relative to the current one.
+        int from = this.slideIndex;
+        int to = this.slideIndex + 1;
+        this.slide.setFromX(0);
+        this.slide.setFromY(0);
+        this.slide.setToX(
+            boardIdxToScene(this.slidePath.getCol(to),
+                this.getBoardWidth(), this.mainScene.getWidth()) -
+            boardIdxToScene(this.slidePath.getCol(from),
+                this.getBoardWidth(), this.mainScene.getWidth()));
+        this.slide.setToY(
+            boardIdxToScene(this.slidePath.getRow(to),
+                this.getBoardHeight(), this.mainScene.getHeight()) -
+            boardIdxToScene(this.slidePath.getRow(from),
+                this.getBoardHeight(), this.mainScene.getHeight()));
+        this.slide.playFromStart();
+
+    }
+
+    /**
+     * Moves the player onto the next cell of slidePath at once,
+     * leaving a trail behind it.
+     */
+    void advanceSlide() {
+        this.revealTrail(this.slideIndex);
+        this.slideIndex++;
+        this.placePlayer(this.slidePath.getCol(this.slideIndex),
+                         this.slidePath.getRow(this.slideIndex));
+    }
+
+    /**
+     * Shows the trail circle of a cell on slidePath.
+     * 
+     * @param pathIdx Index of the cell on slidePath.
+     */
+    void revealTrail(int pathIdx) {
+        this.grid[this.slidePath.getRow(pathIdx)]
+                 [this.slidePath.getCol(pathIdx)].setFill(TRAIL_COLOR);
+    }
+
+    /**
+     * Called once the player has been animated to the end of
+     * slidePath. Starts a fresh path, and shows the winning
+     * animation if this was the last move of the level.
+     */
+    void finishSlide() {
+
+        this.slidePath.clear();
+        this.slideIndex = 0;
+
+        if(this.game.currentState.levelPassed) {
+            this.onLevelFinished();
+        }
+
+    }
+
+    /**
+     * Abandons the slide animation, leaving the player wherever it
+     * is drawn, and starts a fresh path.
+     */
+    void stopSlide() {
+        this.slide.stop();
+        this.slidePath.clear();
+        this.slideIndex = 0;
+        this.slidePathValid = true;
+    }
+    
+    /**
+     * Applies every key press queued since the last frame to the
+     * game, then updates the scene once for all of them. Called
+     * by inputPulse on each animation pulse. A hint asked for in
+     * the batch is requested after the scene update, which clears
+     * any hint for the position before the batch's moves.
+     */
+    void drainPendingKeys() {
+
+        // Nothing to do on most frames.
+        if(this.pendingKeys.isEmpty()) {
+            return;
+        }
+
+        // Keys pressed while the win animation plays are dropped.
+        if(this.game.currentState.levelPassed) {
+            this.pendingKeys.clear();
+            return;
+        }
 
         // Preserve the player's old location.
         int playerRowOld = this.game.currentState.playerRow;
         int playerColOld = this.game.currentState.playerCol;
 
+        // Apply the whole batch to the model only, holding back
+        // hint requests until the scene has caught up.
+        boolean hintWanted = false;
+        int keyIdx = 0;
+        while(!this.pendingKeys.isEmpty()) {
+
+            KeyCode keyCode = this.pendingKeys.poll();
+            if(keyCode == KeyCode.H) {
+                hintWanted = true;
+            }
+            else {
+                this.handleKeyCode(keyCode);
+            }
+            this.keyToModel.record(
+                System.nanoTime() - this.pendingKeyTimes[keyIdx++]);
+
+            // Whatever comes after the winning move is dropped.
+            if(this.game.currentState.levelPassed) {
+                this.pendingKeys.clear();
+            }
+
+        }
+
+        // Call onPlayerMoved() once to update the GUI to reflect the
+        // player's movement (if any) over the whole batch.
+        long sceneStart = System.nanoTime();
+        this.onPlayerMoved(
+            playerColOld,
+            playerRowOld,
+            this.game.currentState.playerCol,
+            this.game.currentState.playerRow
+        );
+        this.modelToScene.record(System.nanoTime() - sceneStart);
+
+        // Now the hint is for the position the player ends up in.
+        if(hintWanted && !this.game.currentState.levelPassed) {
+            this.requestHint();
+        }
+
+    }
+
+    /**
+     * Called on every animation pulse. Applies queued key presses,
+     * tracks frame pacing and refreshes the performance HUD.
+     * 
+     * @param now Time of this pulse, from System.nanoTime().
+     */
+    void onPulse(long now) {
+
+        // Record the time since the previous pulse.
+        if(this.lastPulseTime != 0) {
+            this.framePacing.record(now - this.lastPulseTime);
+        }
+        this.lastPulseTime = now;
+
+        this.drainPendingKeys();
+
+        // Refresh the HUD a few times a second while it's shown.
+        if(this.performanceHud.isVisible() &&
+           now - this.lastHudTime >= HUD_REFRESH_NANOS) {
+                this.lastHudTime = now;
+                this.refreshHud();
+        }
+
+    }
+
+    /**
+     * Shows or hides the performance HUD. Showing it starts fresh
+     * histograms, so it describes the game since it was opened.
+     */
+    void toggleHud() {
+
+        boolean show = !this.performanceHud.isVisible();
+        if(show) {
+            this.keyToModel.reset();
+            this.modelToScene.reset();
+            this.framePacing.reset();
+            this.refreshHud();
+        }
+        this.performanceHud.setVisible(show);
+
+    }
+
+    /**
+     * Rewrites the performance HUD's text.
+     */
+    void refreshHud() {
+        this.performanceHud.setText(
+            "key->model   " + this.keyToModel.summarizeMillis() + "\n" +
+            "model->scene " + this.modelToScene.summarizeMillis() + "\n" +
+            "frame        " + this.framePacing.summarizeMillis() + "\n" +
+            String.format("history      %d moves, %.1f KB",
+                this.game.history.size(),
+                this.game.estimateHistoryBytes() / BYTES_PER_KB));
+    }
+
+    /**
+     * Helper method to help handle key presses. Only updates the
+     * game; the scene is updated by drainPendingKeys().
+     * 
+     * @param keyCode The keystroke in question.
+     */
+    void handleKeyCode(KeyCode keyCode) {
+
         // Execute certain tasks for specific keystrokes.
         switch (keyCode) {
 
@@ -341,63 +786,77 @@ public class GuiStreamline extends Application {
 
             case W:
                 // Move up.
-                this.game.recordAndMove(Direction.UP);
+                this.game.recordAndMove(Direction.UP, this.slidePath);
                 break;
             case S:
                 // Move down.
-                this.game.recordAndMove(Direction.DOWN);
+                this.game.recordAndMove(Direction.DOWN, this.slidePath);
                 break;
             case A:
                 // Move left.
-                this.game.recordAndMove(Direction.LEFT);
+                this.game.recordAndMove(Direction.LEFT, this.slidePath);
                 break;
             case D:
                 // Move right.
-                this.game.recordAndMove(Direction.RIGHT);
+                this.game.recordAndMove(Direction.RIGHT, this.slidePath);
                 break;
 
             case UP:
                 // Move up.
-                this.game.recordAndMove(Direction.UP);
+                this.game.recordAndMove(Direction.UP, this.slidePath);
                 break;
             case DOWN:
                 // Move down.
-                this.game.recordAndMove(Direction.DOWN);
+                this.game.recordAndMove(Direction.DOWN, this.slidePath);
                 break;
             case LEFT:
                 // Move left.
-                this.game.recordAndMove(Direction.LEFT);
+                this.game.recordAndMove(Direction.LEFT, this.slidePath);
                 break;
             case RIGHT:
                 // Move right.
-                this.game.recordAndMove(Direction.RIGHT);
+                this.game.recordAndMove(Direction.RIGHT, this.slidePath);
                 break;
 
             case KP_UP:
                 // Move up.
-                this.game.recordAndMove(Direction.UP);
+                this.game.recordAndMove(Direction.UP, this.slidePath);
                 break;
             case KP_DOWN:
                 // Move down.
-                this.game.recordAndMove(Direction.DOWN);
+                this.game.recordAndMove(Direction.DOWN, this.slidePath);
                 break;
             case KP_LEFT:
                 // Move left.
-                this.game.recordAndMove(Direction.LEFT);
+                this.game.recordAndMove(Direction.LEFT, this.slidePath);
                 break;
             case KP_RIGHT:
                 // Move right.
-                this.game.recordAndMove(Direction.RIGHT);
+                this.game.recordAndMove(Direction.RIGHT, this.slidePath);
                 break;
 
             case U:
-                // Undo move.
+                // Undo move. The board no longer matches slidePath.
                 this.game.undo();
+                this.slidePathValid = false;
+                break;
+            case R:
+                // Redo move. The board no longer matches slidePath.
+                this.game.redo();
+                this.slidePathValid = false;
                 break;
             case O:
                 // Save user's data.
                 this.game.saveToFile();
                 break;
+            case H:
+                // Suggest a move.
+                this.requestHint();
+                break;
+            case P:
+                // Show or hide performance numbers.
+                this.toggleHud();
+                break;
             case Q:
                 // Terminate the game.
                 System.exit(0);
@@ -405,21 +864,75 @@ public class GuiStreamline extends Application {
             default:
                 System.out.println("Possible commands:\n w - up\n " + 
                     "a - left\n s - down\n d - right\n u - undo\n " + 
-                    "q - quit level");
+                    "r - redo\n " + 
+                    "h - hint\n p - performance HUD\n q - quit level");
                 break;
         }
 
-        // Call onPlayerMoved() to update the GUI to reflect the player's 
-        // movement (if any).
-        this.onPlayerMoved(
-            playerColOld,
-            playerRowOld,
-            this.game.currentState.playerCol,
-            this.game.currentState.playerRow
+    }
+
+    /**
+     * Asks the hint engine for a move from the current state. The
+     * search runs in the background; the answer is shown once it
+     * arrives, unless the player has moved in the meantime.
+     */
+    void requestHint() {
+
+        // Remember which level the hint was asked for.
+        final Streamline hintedGame = this.game;
+
+        this.hintEngine.requestHint(this.game.currentState, dir -> {
+
+            // Ignore answers for a level that has since been left.
+            if(hintedGame != this.game) {
+                return;
+            }
+
+            // Let the player know when there's nothing to suggest.
+            if(dir == null) {
+                System.out.println("No solution from here, try undoing.");
+                return;
+            }
+
+            this.showHint(dir);
+
+        });
+
+    }
+
+    /**
+     * Highlights the square the player would end up on by moving
+     * in the suggested direction.
+     * 
+     * @param dir The suggested direction.
+     */
+    void showHint(Direction dir) {
+
+        // Find where the suggested move leads.
+        GameState preview = new GameState(this.game.currentState);
+        preview.move(dir);
+
+        // Place the hint marker there.
+        double[] hintPos = this.boardIdxToScenePos(
+            preview.playerCol,
+            preview.playerRow
         );
+        this.hintRect.setCenterX(hintPos[0]);
+        this.hintRect.setCenterY(hintPos[1]);
+        this.hintRect.setVisible(true);
+
+        System.out.println("Hint: move " + dir);
 
     }
 
+    /**
+     * Hides the hint marker and cancels any hint search still running.
+     */
+    void clearHint() {
+        this.hintEngine.cancel();
+        this.hintRect.setVisible(false);
+    }
+
     /**
      * This nested private class handles keyboard input
      * and calls handleKeyCode().
@@ -428,13 +941,17 @@ public class GuiStreamline extends Application {
         
         /**
          * Handles what to do in the even that a
-         * key has been pressed.
+         * key has been pressed. The key is queued
+         * and applied on the next animation pulse.
          */
         public void handle(KeyEvent e) {
 
-            // Determine what to do based on the
-            // user's keystroke.
-            handleKeyCode(e.getCode());
+            // Hold on to the user's keystroke (and when
+            // it arrived) unless too many are already waiting.
+            if(pendingKeys.size() < MAX_PENDING_KEYS) {
+                pendingKeyTimes[pendingKeys.size()] = System.nanoTime();
+                pendingKeys.add(e.getCode());
+            }
 
         }
 
@@ -449,27 +966,125 @@ public class GuiStreamline extends Application {
         // Empty and rebuild the grid.
         this.resetGrid();
 
+        // Position the player, goal and hint on it.
+        this.placePieces();
+
+    }
+
+    /**
+     * Switches to a level that was prepared in the background. Only
+     * swaps in the already built shapes and moves the player, goal
+     * and hint, so it's cheap enough for the FX thread.
+     * 
+     * @param view The prepared level.
+     */
+    void showLevel(LevelView view) {
+
+        // Swap the prepared shapes in where the old ones were.
+        List<Node> children = this.rootGroup.getChildren();
+        children.set(children.indexOf(this.levelGroup), view.group);
+        this.levelGroup = view.group;
+        this.grid = view.grid;
+        this.game = view.game;
+
+        // Position the player, goal and hint on it.
+        this.placePieces();
+
+        // Start getting the level after this one ready.
+        this.prepareNextLevel();
+
+    }
+
+    /**
+     * Sizes and positions the player, goal and hint marker for the
+     * current level.
+     */
+    void placePieces() {
+
         // Calculate the sizes of all squares.
         double squareSize = this.getSquareSize() * SQUARE_FRACTION;
 
-        // Update the player's position.
-        double[] playerPos = boardIdxToScenePos(
+        // Update the player's position, cutting any slide short.
+        this.stopSlide();
+        this.playerRect.setSize(squareSize);
+        this.placePlayer(
             this.game.currentState.playerCol,
             this.game.currentState.playerRow
         );
-        this.playerRect.setSize(squareSize);
-        this.playerRect.setCenterX(playerPos[0]);
-        this.playerRect.setCenterY(playerPos[1]);
 
         // Update the goal's position.
         double[] goalPos = boardIdxToScenePos(
-            this.game.currentState.goalCol,
-            this.game.currentState.goalRow
+            this.game.currentState.getGoalCol(),
+            this.game.currentState.getGoalRow()
         );
         this.goalRect.setSize(squareSize);
         this.goalRect.setCenterX(goalPos[0]);
         this.goalRect.setCenterY(goalPos[1]);
 
+        // Resize the hint marker; it stays hidden until asked for.
+        this.hintRect.setSize(squareSize);
+        this.hintRect.setVisible(false);
+
+    }
+
+    /**
+     * Parses the next level file and builds its shapes on the level
+     * loader thread. The result is picked up by onLevelFinished().
+     * Completes with null if there are no more levels.
+     */
+    void prepareNextLevel() {
+
+        // Take the next file name now; the list belongs to this thread.
+        final String filename =
+            this.nextLevels.isEmpty() ? null : this.nextLevels.remove(0);
+
+        // The scene can't be resized, so its size won't change.
+        final double sceneWidth = this.mainScene.getWidth();
+        final double sceneHeight = this.mainScene.getHeight();
+
+        this.nextLevel = CompletableFuture.supplyAsync(() -> {
+
+            // Nothing to prepare after the last level.
+            if(filename == null) {
+                return null;
+            }
+
+            System.out.printf("Loading game from file %s...\n", filename);
+
+            // Parse the file and build its shapes.
+            LevelView view = new LevelView();
+            view.game = new Streamline(filename);
+            SessionRecorder.attachIfEnabled(view.game);
+            view.group = new Group();
+            view.grid = buildGrid(view.game.currentState,
+                sceneWidth, sceneHeight, view.group);
+            return view;
+
+        }, this.levelLoader).exceptionally(e -> {
+
+            // A level that fails to load ends the game like the last one.
+            e.printStackTrace();
+            return null;
+
+        });
+
+    }
+
+    /**
+     * A level that's ready to be shown: the game and the shapes built
+     * for its board.
+     */
+    static class LevelView {
+
+        // The level's game.
+        Streamline game;
+
+        // Group holding the level's trail and obstacle shapes.
+        Group group;
+
+        // Same dimensions as the game board.
+        Shape[][] grid;
+
     }
 
     /** 
@@ -512,28 +1127,24 @@ public class GuiStreamline extends Application {
         // This will be called after the scale animation finishes.
         // If there is no next level, quit. Otherwise switch to it and
         // fade out the animated cloned goal to reveal the new level.
-        st.setOnFinished(e1 -> {
+        // The next level is prepared in the background, so wait for it
+        // (usually it's long done) without blocking the FX thread.
+        st.setOnFinished(e1 -> this.nextLevel.thenAcceptAsync(view -> {
 
             // Check if there is no next game.
-            if(this.nextGames.isEmpty()) {
+            if(view == null) {
 
                 // Quit if there is no next game.
                 System.exit(0);
 
             }
 
-            // Fetch the next level.
-            this.game = nextGames.get(0);
-
-            // Update the list of queued games.
-            this.nextGames.remove(0);
-
             // Remove the animated goal.
             this.rootGroup.getChildren().remove(animatedGoal);
 
-            // Update UI to the next level, but it won't be visible yet
+            // Switch UI to the next level, but it won't be visible yet
             // because it's covered by the animated cloned goal.
-            this.onLevelLoaded();
+            this.showLevel(view);
 
             Rectangle fadeRect = new Rectangle(0, 0, 
                 this.mainScene.getWidth(), mainScene.getHeight());
@@ -559,7 +1170,7 @@ public class GuiStreamline extends Application {
             
             // Start the fade-out now.
             ft.play();
-        });
+        }, Platform::runLater));
         
         // Start the scale animation.
         st.play();
@@ -573,7 +1184,7 @@ public class GuiStreamline extends Application {
     public void loadLevels() {
 
         game = null;
-        nextGames = new ArrayList<Streamline>();
+        nextLevels = new ArrayList<String>();
         
         List<String> args = getParameters().getRaw();
         if (args.size() == 0) {
@@ -610,17 +1221,16 @@ public class GuiStreamline extends Application {
             // in case there's a directory in there, skip
             if (subfile.isDirectory()) continue;
 
-            // assume all files are properly formatted games, 
-            // create a new game for each file, and add it to nextGames
-            System.out.printf("Loading game %d/%d from file %s...\n",
-                i+1, subfiles.length, subfile.toString());
-            nextGames.add(new Streamline(subfile.toString()));
+            // assume all files are properly formatted games, queue them
+            // up and only parse each one when it's about to be played
+            nextLevels.add(subfile.toString());
 
         }
 
         // Switch to the first level
-        game = nextGames.get(0);
-        nextGames.remove(0);
+        System.out.printf("Loading game from file %s...\n",
+            nextLevels.get(0));
+        game = new Streamline(nextLevels.remove(0));
 
     }
 
@@ -634,8 +1244,9 @@ public class GuiStreamline extends Application {
      */
     public void start(Stage primaryStage) throws Exception {
 
-        // Populate game and nextGames.
+        // Populate game and nextLevels.
         loadLevels();
+        SessionRecorder.attachIfEnabled(this.game);
 
         // Initialize the scene and our groups.
         rootGroup = new Group();
@@ -655,16 +1266,63 @@ public class GuiStreamline extends Application {
         // Initialize playerRect.
         this.playerRect = new Player();
 
-        // Add goal / player shapes to rootGroup.
+        // Initialize the hint marker and the engine behind it.
+        this.hintRect = new RoundedSquare();
+        this.hintRect.setFill(HINT_COLOR);
+        this.hintRect.setVisible(false);
+        this.hintEngine = new HintEngine(Platform::runLater);
+
+        // Add goal / hint / player shapes to rootGroup.
         this.rootGroup.getChildren().add(this.goalRect);
+        this.rootGroup.getChildren().add(this.hintRect);
         this.rootGroup.getChildren().add(this.playerRect);
 
+        // Set up the player's slide animation, reused for every step.
+        this.slidePath = new MovePath();
+        this.slidePathValid = true;
+        this.slide = new TranslateTransition(
+            Duration.millis(SLIDE_STEP_TIME), this.playerRect
+        );
+        this.slide.setInterpolator(Interpolator.LINEAR);
+        this.slide.setOnFinished(e -> {
+            this.advanceSlide();
+            this.stepSlide();
+        });
+
         // Set up loaded levels.
         this.onLevelLoaded();
 
+        // Get the next level ready in the background.
+        this.levelLoader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "streamline-level-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prepareNextLevel();
+
+        // Set up the performance HUD, hidden at first.
+        this.keyToModel = new LatencyHistogram();
+        this.modelToScene = new LatencyHistogram();
+        this.framePacing = new LatencyHistogram();
+        this.performanceHud = new Text(HUD_X, HUD_Y, "");
+        this.performanceHud.setFont(Font.font(HUD_FONT, HUD_FONT_SIZE));
+        this.performanceHud.setVisible(false);
+        this.rootGroup.getChildren().add(this.performanceHud);
+
         // Set up keyboard input handling.
+        this.pendingKeys = new ArrayDeque<KeyCode>();
+        this.pendingKeyTimes = new long[MAX_PENDING_KEYS];
         this.myKeyHandler = new MyKeyHandler();
         this.mainScene.setOnKeyPressed(this.myKeyHandler);
+
+        // Apply queued key presses once per frame.
+        this.inputPulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse(now);
+            }
+        };
+        this.inputPulse.start();
         
         // Make the scene visible.
         primaryStage.setTitle(TITLE);
@@ -0,0 +1,168 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Suggests the next move for a game by running the solver on a background
+ * thread, so the caller (usually the JavaFX Application Thread) never waits
+ * on a search.
+ *
+ * Once a solution has been found, the states it passes through are kept so
+ * that later hints along the same line of play are answered immediately
+ * without searching again. A search that is still running when the player
+ * moves can be cancelled with cancel().
+ */
+public class HintEngine {
+
+    // Runs searches one at a time on a daemon thread.
+    private final ExecutorService executor;
+
+    // Hint results are handed to their callbacks through this.
+    private final Executor callbackExecutor;
+
+    // The search currently running, if any.
+    private Future<?> pending;
+
+    // Bumped on every cancel() so late results can be recognised as stale.
+    private int generation;
+
+    // The last solution found, and the state before each of its moves.
+    private List<Direction> solution;
+    private List<GameState> solutionStates;
+
+    // Index into solutionStates of the last state a hint was given for.
+    private int lastMatch;
+
+    /**
+     * Creates a hint engine.
+     *
+     * @param callbackExecutor runs hint callbacks, e.g. Platform::runLater
+     */
+    public HintEngine(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "streamline-hint-solver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Asks for the next move from the given state. The callback receives
+     * the suggested direction, or null if the state has no solution. It is
+     * never called if the request is cancelled first.
+     *
+     * @param state    the state to suggest a move for (copied, not kept)
+     * @param callback receives the hint via the callback executor
+     */
+    synchronized void requestHint(GameState state,
+                                  Consumer<Direction> callback) {
+
+        // Reuse the previous solution if the player is still following it.
+        Direction known = knownHint(state);
+        if (known != null) {
+            final int knownGeneration = this.generation;
+            callbackExecutor.execute(() -> {
+                if (isCurrent(knownGeneration))
+                    callback.accept(known);
+            });
+            return;
+        }
+
+        // A search for this same request may already be running.
+        cancel();
+
+        final GameState start = new GameState(state);
+        final int requestGeneration = this.generation;
+
+        this.pending = executor.submit(() -> {
+            List<Direction> found = GameManager.findCachedSolution(start);
+
+            // Drop the result if the request was cancelled mid-search.
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            Direction hint;
+            synchronized (this) {
+                if (requestGeneration != this.generation)
+                    return;
+                remember(start, found);
+                hint = found == null || found.isEmpty() ? null : found.get(0);
+            }
+
+            callbackExecutor.execute(() -> {
+                if (isCurrent(requestGeneration))
+                    callback.accept(hint);
+            });
+        });
+    }
+
+    /**
+     * Cancels a running search, if any. Results of earlier requests that
+     * have not been delivered yet are discarded.
+     */
+    synchronized void cancel() {
+        this.generation++;
+        if (this.pending != null) {
+            this.pending.cancel(true);
+            this.pending = null;
+        }
+    }
+
+    /**
+     * Checks whether results of a request are still wanted.
+     *
+     * @param requestGeneration the generation the request was made in
+     * @return                  true if it hasn't been cancelled since
+     */
+    private synchronized boolean isCurrent(int requestGeneration) {
+        return requestGeneration == this.generation;
+    }
+
+    /**
+     * Looks for the state along the last solution found, searching forward
+     * from the last match first since the player usually follows the hints.
+     *
+     * @param state the state to give a hint for
+     * @return      the next move of the known solution, or null
+     */
+    private Direction knownHint(GameState state) {
+        if (this.solutionStates == null)
+            return null;
+
+        int count = this.solutionStates.size();
+        for (int n = 0; n < count; n++) {
+            int i = (this.lastMatch + n) % count;
+            if (this.solutionStates.get(i).equals(state)) {
+                this.lastMatch = i;
+                return this.solution.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a freshly found solution along with the states it visits.
+     *
+     * @param start the state the solution starts from
+     * @param found the solution, or null if there is none
+     */
+    private void remember(GameState start, List<Direction> found) {
+        if (found == null || found.isEmpty()) {
+            this.solution = null;
+            this.solutionStates = null;
+            return;
+        }
+
+        List<GameState> states = new ArrayList<GameState>();
+        GameState walker = new GameState(start);
+        for (Direction dir : found) {
+            states.add(new GameState(walker));
+            walker.move(dir);
+        }
+
+        this.solution = found;
+        this.solutionStates = states;
+        this.lastMatch = 0;
+    }
+}
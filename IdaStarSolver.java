@@ -0,0 +1,191 @@
+import java.util.*;
+
+/**
+ * Finds a shortest solution (fewest moves) with iterative deepening A*:
+ * repeated depth-first searches, each allowed to go a little deeper than the
+ * last, so memory stays proportional to the solution's length rather than
+ * to the number of states.
+ *
+ * The estimate of moves left is 0 on the goal, 1 when the goal is in the
+ * player's row or column, and 2 otherwise, since one slide never changes
+ * both. It never overestimates, so the first solution found is a shortest.
+ *
+ * A fixed-size transposition table remembers states already searched in
+ * the current pass and how many moves it took to reach them, so a state
+ * reached again by a different order of moves is skipped unless it was
+ * reached sooner this time. When two states want the same slot, the one
+ * reached in fewer moves (with more search left below it) is kept.
+ */
+public class IdaStarSolver {
+
+    // Transposition table slots used by default; a power of two.
+    static final int DEFAULT_TABLE_SIZE = 1 << 16;
+
+    // The level being solved.
+    private final GameState start;
+
+    // Counts the work done.
+    private final SearchStats stats;
+
+    // Drops states that can no longer reach the goal.
+    private final Reachability reach = new Reachability();
+
+    // Transposition table: the state in each slot, the moves it took to
+    // reach it, and the pass it was stored in.
+    private final StateSignature[] tableStates;
+    private final int[] tableMoves;
+    private final int[] tablePass;
+
+    // The moves made so far along the current line.
+    private final ArrayList<Direction> path = new ArrayList<Direction>();
+
+    // The current pass, its move limit, and the lowest estimate beyond it.
+    private int pass;
+    private int bound;
+    private int nextBound;
+
+    /**
+     * Sets up a search.
+     *
+     * @param start     the state to solve (not modified)
+     * @param stats     counts the states expanded and pruned
+     * @param tableSize transposition table slots; rounded up to a power
+     *                  of two
+     */
+    IdaStarSolver(GameState start, SearchStats stats, int tableSize) {
+        this.start = start;
+        this.stats = stats;
+        int size = Integer.highestOneBit(Math.max(1, tableSize - 1)) << 1;
+        this.tableStates = new StateSignature[size];
+        this.tableMoves = new int[size];
+        this.tablePass = new int[size];
+    }
+
+    /**
+     * Searches for a shortest solution with the default table size.
+     *
+     * @param start the state to solve (not modified)
+     * @param stats counts the states expanded and pruned
+     * @return      a shortest solution, or null if there is none or the
+     *              calling thread was interrupted
+     */
+    static List<Direction> solve(GameState start, SearchStats stats) {
+        return new IdaStarSolver(start, stats, DEFAULT_TABLE_SIZE).solve();
+    }
+
+    /**
+     * Runs passes with a growing move limit until one finds a solution.
+     *
+     * @return same as solve(GameState, SearchStats)
+     */
+    List<Direction> solve() {
+        this.bound = estimate(this.start);
+        while (true) {
+            this.pass++;
+            this.nextBound = Integer.MAX_VALUE;
+
+            if (search(this.start, 0))
+                return new ArrayList<Direction>(this.path);
+
+            // Nothing was cut off by the limit, so there's nowhere left.
+            if (this.nextBound == Integer.MAX_VALUE
+                    || Thread.currentThread().isInterrupted())
+                return null;
+            this.bound = this.nextBound;
+        }
+    }
+
+    /**
+     * Searches below a state within the current move limit.
+     *
+     * @param state the state reached
+     * @param moves the moves it took to reach it
+     * @return      true if a solution was found; it is left in path
+     */
+    private boolean search(GameState state, int moves) {
+        if (state.levelPassed)
+            return true;
+
+        int total = moves + estimate(state);
+        if (total > this.bound) {
+            this.nextBound = Math.min(this.nextBound, total);
+            return false;
+        }
+
+        if (Thread.currentThread().isInterrupted())
+            return false;
+
+        if (!this.reach.canReachGoal(state)) {
+            this.stats.statesPruned++;
+            return false;
+        }
+
+        this.stats.nodesExpanded++;
+
+        for (Direction dir : Direction.values()) {
+            GameState copy = new GameState(state);
+            copy.move(dir);
+
+            // The player didn't move, so nothing changed.
+            if (copy.playerRow == state.playerRow
+                    && copy.playerCol == state.playerCol)
+                continue;
+
+            if (!copy.levelPassed && seenSooner(copy, moves + 1))
+                continue;
+
+            this.path.add(dir);
+            if (search(copy, moves + 1))
+                return true;
+            this.path.remove(this.path.size() - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Checks the transposition table for a state, and records it there.
+     *
+     * @param state the state reached
+     * @param moves the moves it took to reach it
+     * @return      true if this pass already searched the state after
+     *              reaching it in as few moves or fewer
+     */
+    private boolean seenSooner(GameState state, int moves) {
+        StateSignature signature = StateSignature.of(state);
+        int hash = signature.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (this.tableStates.length - 1);
+
+        boolean current = this.tablePass[slot] == this.pass;
+        if (current && signature.equals(this.tableStates[slot])) {
+            if (this.tableMoves[slot] <= moves) {
+                this.stats.statesPruned++;
+                return true;
+            }
+            this.tableMoves[slot] = moves;
+            return false;
+        }
+
+        // Replace by depth: keep whichever has more search below it.
+        if (!current || moves <= this.tableMoves[slot]) {
+            this.tableStates[slot] = signature;
+            this.tableMoves[slot] = moves;
+            this.tablePass[slot] = this.pass;
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the moves left without ever overestimating.
+     *
+     * @param state the state
+     * @return      0 on the goal, 1 in the goal's row or column, else 2
+     */
+    static int estimate(GameState state) {
+        if (state.levelPassed)
+            return 0;
+        if (state.playerRow == state.getGoalRow()
+                || state.playerCol == state.getGoalCol())
+            return 1;
+        return 2;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * A fixed-size histogram of latencies in the style of HdrHistogram. Values
+ * are counted in log-linear buckets: every power of two is split into 64
+ * equal sub-buckets, so any recorded value is reported within about 1.6% of
+ * its true value, from a nanosecond up to hours, in a few kilobytes.
+ *
+ * Recording never allocates, so it is safe to call on the FX thread or in a
+ * tight loop. Instances are not thread safe; give each thread its own and
+ * combine them with add().
+ */
+public class LatencyHistogram {
+
+    // Sub-buckets per power of two, and the bits needed to index them.
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Values below this are counted exactly, one bucket each.
+    static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+
+    // Enough buckets for any non-negative long.
+    static final int BUCKET_COUNT =
+        (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + LINEAR_LIMIT;
+
+    // Nanoseconds per millisecond, for printing.
+    static final double NANOS_PER_MILLI = 1e6;
+
+    // Number of values recorded in each bucket.
+    private final long[] counts = new long[BUCKET_COUNT];
+
+    // Totals over all recorded values.
+    private long totalCount;
+    private long max;
+    private long sum;
+
+    /**
+     * Records one value.
+     *
+     * @param value the value, e.g. a latency in nanoseconds; negative
+     *              values are counted as 0
+     */
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+        this.counts[bucketOf(value)]++;
+        this.totalCount++;
+        this.sum += value;
+        if (value > this.max)
+            this.max = value;
+    }
+
+    /**
+     * Adds all values recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            this.counts[i] += other.counts[i];
+        this.totalCount += other.totalCount;
+        this.sum += other.sum;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    void reset() {
+        java.util.Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long getCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * @return the largest value recorded, exactly
+     */
+    long getMax() {
+        return this.max;
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    double getMean() {
+        return this.totalCount == 0 ? 0 : (double) this.sum / this.totalCount;
+    }
+
+    /**
+     * Finds the value below which a given percentage of recorded values
+     * fall. The answer is the top of the bucket the percentile lands in,
+     * but never more than the largest value recorded.
+     *
+     * @param percentile a percentage between 0 and 100
+     * @return           the value at that percentile, or 0 if empty
+     */
+    long getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100 * this.totalCount);
+        rank = Math.max(1, Math.min(rank, this.totalCount));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= rank)
+                return Math.min(highestValueIn(i), this.max);
+        }
+        return this.max;
+    }
+
+    /**
+     * Summarises the histogram, treating values as nanoseconds.
+     *
+     * @return e.g. "p50 0.120 ms  p99 0.480 ms  max 1.300 ms"
+     */
+    String summarizeMillis() {
+        return String.format("p50 %.3f ms  p99 %.3f ms  max %.3f ms",
+            getValueAtPercentile(50) / NANOS_PER_MILLI,
+            getValueAtPercentile(99) / NANOS_PER_MILLI,
+            getMax() / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Finds the bucket a value is counted in.
+     *
+     * @param value a non-negative value
+     * @return      its bucket index
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        // Keep the top SUB_BUCKET_BITS + 1 bits of the value.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Finds the largest value that is counted in a bucket.
+     *
+     * @param bucket a bucket index
+     * @return       the largest value it holds
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = (bucket & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * The parts of a level that never change while it's played: the board's
+ * size, its obstacles and the goal. Every GameState of a level shares one
+ * LevelLayout and holds only what does change, the player and its trail,
+ * so copying a state copies a bit set rather than the whole board.
+ *
+ * Layouts are immutable. Setting a level up (e.g. adding random obstacles)
+ * makes new layouts, and rotating a board uses the rotated layout, which is
+ * made once and then shared too.
+ *
+ * Cells are numbered row * width + col, as in StateSignature.
+ */
+public class LevelLayout {
+
+    // The board's size.
+    final int height;
+    final int width;
+
+    // Location of the goal.
+    final int goalRow;
+    final int goalCol;
+
+    // One bit per cell, set for obstacles.
+    private final long[] obstacles;
+
+    // Cached hash code.
+    private final int hash;
+
+    // This layout turned counter-clockwise, made on first use.
+    private LevelLayout rotated;
+
+    /**
+     * Creates a layout. The obstacle bit set is kept, not copied.
+     *
+     * @param height    rows on the board
+     * @param width     columns on the board
+     * @param goalRow   the goal's row
+     * @param goalCol   the goal's column
+     * @param obstacles one bit per cell, set for obstacles
+     */
+    LevelLayout(int height, int width, int goalRow, int goalCol,
+                long[] obstacles) {
+        this.height = height;
+        this.width = width;
+        this.goalRow = goalRow;
+        this.goalCol = goalCol;
+        this.obstacles = obstacles;
+
+        int hash = height;
+        hash = 31 * hash + width;
+        hash = 31 * hash + goalRow;
+        hash = 31 * hash + goalCol;
+        this.hash = 31 * hash + Arrays.hashCode(obstacles);
+    }
+
+    /**
+     * Creates a layout with no obstacles.
+     *
+     * @param height  rows on the board
+     * @param width   columns on the board
+     * @param goalRow the goal's row
+     * @param goalCol the goal's column
+     */
+    LevelLayout(int height, int width, int goalRow, int goalCol) {
+        this(height, width, goalRow, goalCol,
+             StateSignature.newBits(height * width));
+    }
+
+    /**
+     * @return rows on the board
+     */
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return columns on the board
+     */
+    int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @param cell a cell number
+     * @return     true if the cell holds an obstacle
+     */
+    boolean isObstacle(int cell) {
+        return StateSignature.get(this.obstacles, cell);
+    }
+
+    /**
+     * @param row a row
+     * @param col a column
+     * @return    true if the cell holds an obstacle
+     */
+    boolean isObstacle(int row, int col) {
+        return isObstacle(row * this.width + col);
+    }
+
+    /**
+     * @param row a row
+     * @param col a column
+     * @return    true if the cell is the goal
+     */
+    boolean isGoal(int row, int col) {
+        return row == this.goalRow && col == this.goalCol;
+    }
+
+    /**
+     * Makes a copy of this layout with one more obstacle.
+     *
+     * @param row the obstacle's row
+     * @param col the obstacle's column
+     * @return    the new layout
+     */
+    LevelLayout withObstacle(int row, int col) {
+        long[] bits = this.obstacles.clone();
+        StateSignature.set(bits, row * this.width + col);
+        return new LevelLayout(this.height, this.width, this.goalRow,
+                               this.goalCol, bits);
+    }
+
+    /**
+     * Gets this layout turned counter-clockwise once, as done by
+     * GameState.rotateCounterClockwise(): cell (row, col) moves to
+     * (width - 1 - col, row).
+     *
+     * @return the rotated layout, the same one on every call
+     */
+    synchronized LevelLayout rotatedCounterClockwise() {
+        if (this.rotated == null) {
+            long[] bits = StateSignature.newBits(this.height * this.width);
+            for (int i = 0; i < this.height; i++)
+                for (int j = 0; j < this.width; j++)
+                    if (isObstacle(i, j))
+                        StateSignature.set(bits,
+                            (this.width - 1 - j) * this.height + i);
+            this.rotated = new LevelLayout(this.width, this.height,
+                this.width - 1 - this.goalCol, this.goalRow, bits);
+        }
+        return this.rotated;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof LevelLayout))
+            return false;
+        LevelLayout that = (LevelLayout) other;
+        return this.hash == that.hash && this.height == that.height && this.width == that.width
+            && this.goalRow == that.goalRow && this.goalCol == that.goalCol
+            && Arrays.equals(this.obstacles, that.obstacles);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
@@ -0,0 +1,290 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Simulates many players at once to find how far the engine and its undo
+ * history scale. Every bot plays its own Streamline game on its own thread
+ * through recordAndMove() and undo(), either at random or by following the
+ * solver's solution, at a fixed number of events per second.
+ *
+ * At the end it reports throughput, latency percentiles, the allocation
+ * rate of the bot threads and the GC pauses seen during the run.
+ *
+ * When throttled, each event's latency is measured from when it was due
+ * rather than when it actually started, so a stall that delays later events
+ * shows up in their latencies too instead of being hidden.
+ */
+public class LoadGenerator {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java LoadGenerator <level file> <bots> <rate> <seconds>          - "
+        + "play random moves, rate events per second per bot (0 = flat out)\n" +
+        "> java LoadGenerator <level file> <bots> <rate> <seconds> solver   - "
+        + "follow the solver's solution instead\n";
+
+    static final String SOLVER_TOKEN = "solver";
+
+    // Chance that a random bot undoes instead of moving.
+    static final double UNDO_CHANCE = 0.1;
+
+    // Nanoseconds per second, and per millisecond, for reporting.
+    static final double NANOS_PER_SECOND = 1e9;
+    static final double NANOS_PER_MILLI = 1e6;
+
+    // Bytes per megabyte, for reporting.
+    static final double BYTES_PER_MB = 1024 * 1024;
+
+    /**
+     * One simulated player and what it measured.
+     */
+    static class Bot implements Runnable {
+
+        // The level every game starts from, and its solution if following one.
+        final GameState start;
+        final List<Direction> solution;
+
+        // Time between events, or 0 to run flat out, and when to stop.
+        final long intervalNanos;
+        final long deadline;
+
+        // Makes each bot's random play differ but repeat between runs.
+        final Random random;
+
+        // Latency of every event.
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        // Games finished, and bytes allocated by this bot's thread, or -1
+        // if the JVM can't tell.
+        long levelsPassed;
+        long allocatedBytes = -1;
+
+        /**
+         * Creates a bot.
+         *
+         * @param id            numbers the bot, seeding its random play
+         * @param start         the level to play
+         * @param solution      the solution to follow, or null to play
+         *                      randomly
+         * @param intervalNanos time between events, or 0 for no limit
+         * @param deadline      System.nanoTime() at which to stop
+         */
+        Bot(int id, GameState start, List<Direction> solution,
+            long intervalNanos, long deadline) {
+            this.start = start;
+            this.solution = solution;
+            this.intervalNanos = intervalNanos;
+            this.deadline = deadline;
+            this.random = new Random(id);
+        }
+
+        @Override
+        public void run() {
+            long allocatedBefore = threadAllocatedBytes();
+            Direction[] dirs = Direction.values();
+
+            Streamline game = new Streamline(this.start);
+            int step = 0;
+            long due = System.nanoTime();
+
+            while (due < this.deadline) {
+                if (this.intervalNanos > 0) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        LockSupport.parkNanos(wait);
+                } else {
+                    due = System.nanoTime();
+                }
+
+                // Start over once a game is won.
+                if (game.currentState.levelPassed) {
+                    game = new Streamline(this.start);
+                    step = 0;
+                    this.levelsPassed++;
+                }
+
+                if (this.solution != null) {
+                    game.recordAndMove(this.solution.get(step++));
+                } else if (this.random.nextDouble() < UNDO_CHANCE) {
+                    game.undo();
+                } else {
+                    game.recordAndMove(dirs[this.random.nextInt(dirs.length)]);
+                }
+
+                long now = System.nanoTime();
+                this.latencies.record(now - due);
+                due = this.intervalNanos > 0 ? due + this.intervalNanos : now;
+            }
+
+            long allocatedAfter = threadAllocatedBytes();
+            if (allocatedBefore >= 0 && allocatedAfter >= 0)
+                this.allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+    }
+
+    /**
+     * Counts the bytes the current thread has allocated so far.
+     *
+     * @return the count, or -1 if the JVM doesn't support it
+     */
+    static long threadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) threads)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Records the duration of every garbage collection while it's installed.
+     */
+    static class GcListener implements NotificationListener {
+
+        // Duration of each collection, in nanoseconds.
+        final LatencyHistogram pauses = new LatencyHistogram();
+
+        /**
+         * Starts listening to every collector that reports notifications.
+         */
+        void install() {
+            for (GarbageCollectorMXBean gc :
+                    ManagementFactory.getGarbageCollectorMXBeans())
+                if (gc instanceof NotificationEmitter)
+                    ((NotificationEmitter) gc).addNotificationListener(
+                        this, null, null);
+        }
+
+        /**
+         * Stops listening.
+         */
+        void uninstall() {
+            for (GarbageCollectorMXBean gc :
+                    ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (!(gc instanceof NotificationEmitter)) continue;
+                try {
+                    ((NotificationEmitter) gc).removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Never installed on this collector.
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification,
+                                                    Object handback) {
+            if (!com.sun.management.GarbageCollectionNotificationInfo
+                    .GARBAGE_COLLECTION_NOTIFICATION
+                    .equals(notification.getType()))
+                return;
+
+            com.sun.management.GarbageCollectionNotificationInfo info =
+                com.sun.management.GarbageCollectionNotificationInfo.from(
+                    (CompositeData) notification.getUserData());
+            this.pauses.record(
+                (long) (info.getGcInfo().getDuration() * NANOS_PER_MILLI));
+        }
+    }
+
+    /**
+     * Runs the bots and prints what they measured.
+     *
+     * @param args the level, the number of bots, events per second per bot,
+     *             how many seconds to run, and optionally SOLVER_TOKEN
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if ((args.length != 4 && args.length != 5)
+                || (args.length == 5 && !SOLVER_TOKEN.equals(args[4]))) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        GameState start = new Streamline(args[0]).currentState;
+        if (start == null) {
+            System.out.printf("Could not load %s. Exiting..\n", args[0]);
+            return;
+        }
+        int botCount = Integer.parseInt(args[1]);
+        double rate = Double.parseDouble(args[2]);
+        double seconds = Double.parseDouble(args[3]);
+
+        List<Direction> solution = null;
+        if (args.length == 5) {
+            solution = GameManager.findCachedSolution(start);
+            if (solution == null || solution.isEmpty()) {
+                System.out.println("The level has no solution to follow. "
+                                   + "Exiting..");
+                return;
+            }
+        }
+
+        long intervalNanos = rate > 0 ? (long) (NANOS_PER_SECOND / rate) : 0;
+
+        GcListener gcListener = new GcListener();
+        gcListener.install();
+        long gcCountBefore = 0;
+        long gcTimeBefore = 0;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCountBefore += Math.max(0, gc.getCollectionCount());
+            gcTimeBefore += Math.max(0, gc.getCollectionTime());
+        }
+
+        long begin = System.nanoTime();
+        long deadline = begin + (long) (seconds * NANOS_PER_SECOND);
+        Bot[] bots = new Bot[botCount];
+        Thread[] threads = new Thread[botCount];
+        for (int i = 0; i < botCount; i++) {
+            bots[i] = new Bot(i, start, solution, intervalNanos, deadline);
+            threads[i] = new Thread(bots[i], "streamline-bot-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.nanoTime() - begin;
+
+        gcListener.uninstall();
+        long gcCount = -gcCountBefore;
+        long gcTime = -gcTimeBefore;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+
+        // Combine what every bot measured.
+        LatencyHistogram latencies = new LatencyHistogram();
+        long levelsPassed = 0;
+        long allocatedBytes = 0;
+        for (Bot bot : bots) {
+            latencies.add(bot.latencies);
+            levelsPassed += bot.levelsPassed;
+            allocatedBytes = allocatedBytes < 0 || bot.allocatedBytes < 0
+                           ? -1 : allocatedBytes + bot.allocatedBytes;
+        }
+        double elapsedSeconds = elapsed / NANOS_PER_SECOND;
+
+        System.out.printf("%d bots, %s play, %.1f s on a %dx%d board\n",
+            botCount, solution == null ? "random" : "solver-guided",
+            elapsedSeconds, start.getHeight(), start.getWidth());
+        System.out.printf("Throughput: %d events, %.0f events per second, "
+            + "%d levels passed\n", latencies.getCount(),
+            latencies.getCount() / elapsedSeconds, levelsPassed);
+        System.out.printf("Latency:    %s  (p99.9 %.3f ms)\n",
+            latencies.summarizeMillis(),
+            latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI);
+        if (allocatedBytes >= 0)
+            System.out.printf("Allocation: %.1f MB/s, %.0f bytes per event\n",
+                allocatedBytes / BYTES_PER_MB / elapsedSeconds,
+                (double) allocatedBytes / Math.max(1, latencies.getCount()));
+        else
+            System.out.println("Allocation: not supported by this JVM");
+        synchronized (gcListener) {
+            System.out.printf("GC:         %d collections, %d ms total, "
+                + "longest %.3f ms\n", gcCount, gcTime,
+                gcListener.pauses.getMax() / NANOS_PER_MILLI);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.*;
+
+/**
+ * Collapses forced moves so a solver only branches where the player has a
+ * real choice. In a one-wide corridor only one slide moves the player at
+ * all, so searching every such state one move at a time just makes the
+ * search deeper without adding choices.
+ *
+ * The graph's nodes are decision points: states where at least two slides
+ * move the player (or the start). Each edge, a macro-move, is one slide
+ * followed by every forced slide after it, ending at the next decision
+ * point or on the goal. Edges that run into a dead end are left out. The
+ * slides of an edge are kept so a solution found on the graph can be
+ * played back move by move.
+ *
+ * The layout is preprocessed once per level: each cell's neighbour in
+ * every direction (wrapping around the edges like GameState.move()) and
+ * which of those neighbours aren't obstacles. Only trail then needs
+ * checking during the search.
+ */
+public class MacroMoveGraph {
+
+    /**
+     * One edge of the graph: the slides it is made of and where it ends.
+     */
+    static class MacroMove {
+
+        // The slides, in order.
+        final List<Direction> moves;
+
+        // The state after the last slide.
+        final GameState end;
+
+        MacroMove(List<Direction> moves, GameState end) {
+            this.moves = moves;
+            this.end = end;
+        }
+    }
+
+    // The board's width, to number cells as row * width + col.
+    private final int width;
+
+    // The neighbouring cell of each cell in each direction, indexed by
+    // cell * 4 + the direction's rotation count.
+    private final int[] neighbour;
+
+    // For each cell, a bit per direction whose neighbour isn't an obstacle.
+    private final byte[] openMask;
+
+    /**
+     * Preprocesses a level's layout.
+     *
+     * @param level any state of the level
+     */
+    MacroMoveGraph(GameState level) {
+        int height = level.getHeight();
+        this.width = level.getWidth();
+        int cells = height * this.width;
+        Direction[] dirs = Direction.values();
+
+        this.neighbour = new int[cells * dirs.length];
+        this.openMask = new byte[cells];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < this.width; col++) {
+                int cell = row * this.width + col;
+                for (Direction dir : dirs) {
+                    int nextRow = (row + dir.getRowDelta() + height) % height;
+                    int nextCol = (col + dir.getColDelta() + this.width)
+                                % this.width;
+                    int next = nextRow * this.width + nextCol;
+                    this.neighbour[cell * dirs.length
+                                   + dir.getRotationCount()] = next;
+                    if (!level.layout.isObstacle(next))
+                        this.openMask[cell] |= 1 << dir.getRotationCount();
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the slides that move the player at all from a state: those
+     * whose first cell is free.
+     *
+     * @param state the state
+     * @return      a bit per direction, by rotation count
+     */
+    int usefulMoves(GameState state) {
+        int cell = state.playerRow * this.width + state.playerCol;
+        int open = this.openMask[cell];
+        int useful = 0;
+        for (int i = 0; open >> i != 0; i++) {
+            if ((open & (1 << i)) == 0) continue;
+            int next = this.neighbour[cell * 4 + i];
+            if (next != cell && state.isOpen(next))
+                useful |= 1 << i;
+        }
+        return useful;
+    }
+
+    /**
+     * Lists the edges leaving a state, in the order of Direction.values().
+     *
+     * @param state the state (not modified)
+     * @return      one macro-move per first slide that doesn't lead into
+     *              a dead end
+     */
+    List<MacroMove> macroMovesFrom(GameState state) {
+        List<MacroMove> macros = new ArrayList<MacroMove>();
+        Direction[] dirs = Direction.values();
+        int useful = usefulMoves(state);
+
+        for (Direction first : dirs) {
+            if ((useful & (1 << first.getRotationCount())) == 0) continue;
+
+            List<Direction> moves = new ArrayList<Direction>();
+            GameState end = new GameState(state);
+            Direction dir = first;
+            while (true) {
+                end.move(dir);
+                moves.add(dir);
+                if (end.levelPassed)
+                    break;
+
+                // Follow the only slide left, if there's exactly one.
+                int next = usefulMoves(end);
+                if (next == 0 || (next & (next - 1)) != 0)
+                    break;
+                dir = dirs[Integer.numberOfTrailingZeros(next)];
+            }
+
+            // Nowhere left to go and not on the goal: a dead end.
+            if (!end.levelPassed && usefulMoves(end) == 0)
+                continue;
+
+            macros.add(new MacroMove(moves, end));
+        }
+        return macros;
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The undo history of a Streamline game, in bounded memory.
+ *
+ * Each move is kept as one int: its direction and how many cells the
+ * player travelled. Since a move only ever turns SPACE cells into trail,
+ * that's enough to undo it exactly, in place. The moves live in a ring
+ * buffer that grows up to a capacity set by a memory cap. Once it is full,
+ * the oldest moves either spill to a temporary file (if a spill directory
+ * is configured), from which they're read back as undo reaches them, or
+ * are dropped. To keep the history deep when moves are dropped, a compact
+ * checkpoint of the whole state (a StateSignature) is also kept every
+ * CHECKPOINT_INTERVAL moves; undoing past the oldest move kept jumps back
+ * to the checkpoint before it. When there are too many checkpoints, every
+ * other one is dropped, so older history gets coarser rather than bigger.
+ *
+ * Undone moves are kept for redo() until a new move is recorded. Redoing
+ * a move just makes it again; redoing a jump back to a checkpoint restores
+ * a signature of the state jumped from. Either costs about as much memory
+ * as the undo it reverses, so redo needs no board copies either.
+ *
+ * The cap and spill directory come from the system properties named by
+ * MAX_BYTES_PROPERTY and SPILL_DIRECTORY_PROPERTY, e.g.
+ * java -Dstreamline.history.bytes=4096 -Dstreamline.history.spill=/tmp ...
+ */
+public class MoveHistory {
+
+    // System property giving the memory cap, bytes.
+    static final String MAX_BYTES_PROPERTY = "streamline.history.bytes";
+
+    // System property naming a directory to spill old moves to.
+    static final String SPILL_DIRECTORY_PROPERTY = "streamline.history.spill";
+
+    // Memory cap when none is configured, bytes.
+    static final long DEFAULT_MAX_BYTES = 1 << 16;
+
+    // Moves between checkpoints.
+    static final int CHECKPOINT_INTERVAL = 64;
+
+    // One in this many bytes of the cap goes to checkpoints, when moves
+    // aren't spilled; the rest goes to the ring buffer.
+    static final int CHECKPOINT_SHARE = 4;
+
+    // The ring buffer starts this big and doubles up to its capacity.
+    static final int INITIAL_CAPACITY = 64;
+
+    // The ring buffer never holds fewer moves than this, whatever the cap.
+    static final int MIN_CAPACITY = 16;
+
+    // A move is its rotation count in the low bits, then its length.
+    static final int DIRECTION_BITS = 2;
+    static final int DIRECTION_MASK = (1 << DIRECTION_BITS) - 1;
+
+    // Stands for a jump back to a checkpoint on the redo stack (moves are
+    // never negative).
+    static final int JUMP = -1;
+
+    // Rough heap costs used by estimateBytes(), as in
+    // GameState.estimateBytes(): 16 byte headers, 4 byte references.
+    static final int OBJECT_BYTES = 16;
+    static final int REFERENCE_BYTES = 4;
+
+    /**
+     * The state after a given number of moves.
+     */
+    static class Checkpoint {
+        final int moves;
+        final StateSignature signature;
+
+        Checkpoint(int moves, StateSignature signature) {
+            this.moves = moves;
+            this.signature = signature;
+        }
+    }
+
+    // Moves in a ring, oldest at head, and how many there are.
+    private int[] ring;
+    private int head;
+    private int count;
+
+    // How big the ring may grow.
+    private final int capacity;
+
+    // Heap allowed for checkpoints, bytes; 0 if none are kept.
+    private final long checkpointBytes;
+
+    // Checkpoints, oldest first, and how many may be kept (set once the
+    // size of a checkpoint is known).
+    private final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+    private int maxCheckpoints;
+
+    // Moves that can be undone, including spilled and dropped ones.
+    private int moves;
+
+    // Undone moves (or JUMPs), newest last, and the states jumped from,
+    // one per JUMP.
+    private int[] redo;
+    private int redoCount;
+    private final List<Checkpoint> redoJumps = new ArrayList<Checkpoint>();
+
+    // Where old moves spill to (created on first use), and how many
+    // moves it holds; the directory is null when moves are dropped.
+    private File spillDirectory;
+    private File spillFile;
+    private int spilled;
+
+    /**
+     * Creates a history configured by system properties.
+     */
+    MoveHistory() {
+        this(Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+             spillDirectoryProperty());
+    }
+
+    /**
+     * Creates a history.
+     *
+     * @param maxBytes       roughly how much heap it may use
+     * @param spillDirectory where to spill old moves, or null to drop
+     *                       them and keep checkpoints instead
+     */
+    MoveHistory(long maxBytes, File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        this.checkpointBytes = spillDirectory == null
+            ? maxBytes / CHECKPOINT_SHARE : 0;
+        this.capacity = (int) Math.max(MIN_CAPACITY, Math.min(
+            Integer.MAX_VALUE / 2, (maxBytes - this.checkpointBytes)
+            / Integer.BYTES));
+        this.ring = new int[Math.min(INITIAL_CAPACITY, this.capacity)];
+        this.redo = new int[this.ring.length];
+    }
+
+    /**
+     * @return the spill directory named by its system property, or null
+     */
+    private static File spillDirectoryProperty() {
+        String directory = System.getProperty(SPILL_DIRECTORY_PROPERTY);
+        return directory == null ? null : new File(directory);
+    }
+
+    /**
+     * @return how many moves can be undone
+     */
+    int size() {
+        return this.moves;
+    }
+
+    /**
+     * @return true if there's nothing to undo
+     */
+    boolean isEmpty() {
+        return this.moves == 0;
+    }
+
+    /**
+     * @return true if there's something to redo
+     */
+    boolean canRedo() {
+        return this.redoCount > 0;
+    }
+
+    /**
+     * @return the direction of the newest move, or null if there are no
+     *         moves or the newest was dropped
+     */
+    Direction lastDirection() {
+        if (this.count == 0 && this.spilled > 0)
+            unspill();
+        if (this.count == 0)
+            return null;
+        int move = this.ring[(this.head + this.count - 1) % this.ring.length];
+        return Direction.values()[move & DIRECTION_MASK];
+    }
+
+    /**
+     * Records a move that has just been made, if it moved the player. A
+     * move starts a new future, so anything undone can't be redone.
+     *
+     * @param state     the state after the move
+     * @param direction the direction moved in
+     * @param fromRow   the player's row before the move
+     * @param fromCol   the player's column before the move
+     * @return          false if the player didn't move, so nothing was
+     *                  recorded
+     */
+    boolean record(GameState state, Direction direction,
+                   int fromRow, int fromCol) {
+        int height = state.getHeight();
+        int width = state.getWidth();
+
+        // A move never wraps all the way round (its start is trail), so
+        // the distance along its direction is its length.
+        int length = direction.getColDelta() != 0
+            ? Math.floorMod((state.playerCol - fromCol)
+                            * direction.getColDelta(), width)
+            : Math.floorMod((state.playerRow - fromRow)
+                            * direction.getRowDelta(), height);
+        if (length == 0)
+            return false;
+
+        this.redoCount = 0;
+        this.redoJumps.clear();
+        append(state, direction, fromRow * width + fromCol, length);
+        return true;
+    }
+
+    /**
+     * Redoes the newest undone move on a state.
+     *
+     * @param state the state to change in place; must be the one the
+     *              moves were undone on
+     * @return      false if there was nothing to redo
+     */
+    boolean redo(GameState state) {
+        if (this.redoCount == 0)
+            return false;
+
+        int move = this.redo[--this.redoCount];
+        if (move == JUMP) {
+            Checkpoint jump = this.redoJumps.remove(
+                this.redoJumps.size() - 1);
+            jump.signature.applyTo(state);
+            this.moves = jump.moves;
+            return true;
+        }
+
+        // Moving the same way again covers exactly the same cells.
+        Direction direction = Direction.values()[move & DIRECTION_MASK];
+        int from = state.playerRow * state.getWidth() + state.playerCol;
+        state.move(direction);
+        append(state, direction, from, move >>> DIRECTION_BITS);
+        return true;
+    }
+
+    /**
+     * Adds a move to the history, checkpointing the state before it if
+     * one is due.
+     *
+     * @param state     the state after the move
+     * @param direction the move's direction
+     * @param from      the player's cell before the move
+     * @param length    how many cells the player moved
+     */
+    private void append(GameState state, Direction direction, int from,
+                        int length) {
+        if (this.checkpointBytes > 0
+                && this.moves % CHECKPOINT_INTERVAL == 0)
+            addCheckpoint(state, direction, from, length);
+
+        push(length << DIRECTION_BITS | direction.getRotationCount());
+        this.moves++;
+    }
+
+    /**
+     * Undoes the newest move on a state, or if it's been dropped, goes
+     * back to the newest checkpoint before it.
+     *
+     * @param state the state to change in place; must be the one the
+     *              recorded moves were made on
+     * @return      false if there was nothing to undo
+     */
+    boolean undo(GameState state) {
+        if (this.moves == 0)
+            return false;
+        if (this.count == 0 && this.spilled > 0)
+            unspill();
+
+        if (this.count > 0) {
+            int move = this.ring[(this.head + this.count - 1)
+                                 % this.ring.length];
+            this.count--;
+            this.moves--;
+            unmove(state, Direction.values()[move & DIRECTION_MASK],
+                   move >>> DIRECTION_BITS);
+            pushRedo(move);
+        } else {
+            Checkpoint checkpoint = null;
+            for (Checkpoint c : this.checkpoints)
+                if (c.moves < this.moves)
+                    checkpoint = c;
+
+            // Nothing older is known, so this is as far back as it goes.
+            if (checkpoint == null) {
+                this.moves = 0;
+                return false;
+            }
+            this.redoJumps.add(new Checkpoint(this.moves,
+                                              StateSignature.of(state)));
+            pushRedo(JUMP);
+            checkpoint.signature.applyTo(state);
+            this.moves = checkpoint.moves;
+        }
+
+        // Checkpoints after the current state can't be reached again.
+        while (!this.checkpoints.isEmpty() && this.checkpoints.get(
+                this.checkpoints.size() - 1).moves > this.moves)
+            this.checkpoints.remove(this.checkpoints.size() - 1);
+        return true;
+    }
+
+    /**
+     * Estimates how much heap the history takes up.
+     *
+     * @return estimated size in bytes
+     */
+    long estimateBytes() {
+        long bytes = OBJECT_BYTES + OBJECT_BYTES
+            + (long) Integer.BYTES * this.ring.length;
+        bytes += OBJECT_BYTES + (long) Integer.BYTES * this.redo.length;
+        bytes += OBJECT_BYTES + REFERENCE_BYTES * this.checkpoints.size();
+        bytes += OBJECT_BYTES + REFERENCE_BYTES * this.redoJumps.size();
+        int kept = this.checkpoints.size() + this.redoJumps.size();
+        if (kept > 0)
+            bytes += kept * checkpointBytes(this.checkpoints.isEmpty()
+                ? this.redoJumps.get(0) : this.checkpoints.get(0));
+        return bytes;
+    }
+
+    /**
+     * Moves the player back along a move, wiping the trail it left.
+     *
+     * @param state     the state the move was made on
+     * @param direction the move's direction
+     * @param length    how many cells the player moved
+     */
+    private static void unmove(GameState state, Direction direction,
+                               int length) {
+        int height = state.getHeight();
+        int width = state.getWidth();
+        int row = state.playerRow;
+        int col = state.playerCol;
+
+        for (int i = 0; i < length; i++) {
+            row = Math.floorMod(row - direction.getRowDelta(), height);
+            col = Math.floorMod(col - direction.getColDelta(), width);
+            StateSignature.clear(state.trail, row * width + col);
+        }
+
+        state.playerRow = row;
+        state.playerCol = col;
+        state.levelPassed = false;
+    }
+
+    /**
+     * Adds a move to the ring, growing it or making room if it's full.
+     *
+     * @param move the encoded move
+     */
+    private void push(int move) {
+        if (this.count == this.ring.length) {
+            if (this.ring.length < this.capacity)
+                grow();
+            else if (this.spillDirectory != null)
+                spill();
+            else {
+                this.head = (this.head + 1) % this.ring.length;
+                this.count--;
+
+                // Without checkpoints, the dropped move is lost for good.
+                if (this.checkpointBytes == 0)
+                    this.moves--;
+            }
+        }
+        this.ring[(this.head + this.count) % this.ring.length] = move;
+        this.count++;
+    }
+
+    /**
+     * Adds an undone move (or JUMP) to the redo stack. If the stack is
+     * full, the older half of it (the furthest future) is forgotten.
+     *
+     * @param move the encoded move
+     */
+    private void pushRedo(int move) {
+        if (this.redoCount == this.redo.length) {
+            if (this.redo.length < this.capacity) {
+                this.redo = Arrays.copyOf(this.redo, (int) Math.min(
+                    this.capacity, 2L * this.redo.length));
+            } else {
+                int n = this.redoCount / 2;
+                int jumps = 0;
+                for (int i = 0; i < n; i++)
+                    if (this.redo[i] == JUMP)
+                        jumps++;
+                this.redoJumps.subList(0, jumps).clear();
+                System.arraycopy(this.redo, n, this.redo, 0,
+                                 this.redoCount - n);
+                this.redoCount -= n;
+            }
+        }
+        this.redo[this.redoCount++] = move;
+    }
+
+    /**
+     * Doubles the ring (up to its capacity), unwrapping it.
+     */
+    private void grow() {
+        int[] bigger = new int[(int) Math.min(this.capacity,
+                                              2L * this.ring.length)];
+        for (int i = 0; i < this.count; i++)
+            bigger[i] = this.ring[(this.head + i) % this.ring.length];
+        this.ring = bigger;
+        this.head = 0;
+    }
+
+    /**
+     * Writes the older half of a full ring to the spill file. If that
+     * fails, spilling is turned off and those moves are dropped instead;
+     * without checkpoints, undo then stops where they were.
+     */
+    private void spill() {
+        int n = this.ring.length / 2;
+        try {
+            if (this.spillFile == null) {
+                this.spillFile = File.createTempFile("history-", ".spill",
+                                                     this.spillDirectory);
+                this.spillFile.deleteOnExit();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(n * Integer.BYTES);
+            for (int i = 0; i < n; i++)
+                buffer.putInt(this.ring[(this.head + i) % this.ring.length]);
+            try (RandomAccessFile file =
+                    new RandomAccessFile(this.spillFile, "rw")) {
+                file.seek((long) this.spilled * Integer.BYTES);
+                file.write(buffer.array());
+            }
+            this.spilled += n;
+        } catch (IOException e) {
+            System.err.println("Not spilling undo history: " + e);
+            this.spillDirectory = null;
+            this.moves -= this.spilled + n;
+            this.spilled = 0;
+        }
+        this.head = (this.head + n) % this.ring.length;
+        this.count -= n;
+    }
+
+    /**
+     * Reads the newest spilled moves back into the empty ring. If that
+     * fails, the spilled moves are forgotten.
+     */
+    private void unspill() {
+        int n = Math.min(this.spilled, this.ring.length / 2);
+        try (RandomAccessFile file =
+                new RandomAccessFile(this.spillFile, "r")) {
+            byte[] bytes = new byte[n * Integer.BYTES];
+            file.seek((long) (this.spilled - n) * Integer.BYTES);
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < n; i++)
+                this.ring[i] = buffer.getInt();
+            this.head = 0;
+            this.count = n;
+            this.spilled -= n;
+        } catch (IOException e) {
+            System.err.println("Lost spilled undo history: " + e);
+            this.moves -= this.spilled;
+            this.spilled = 0;
+        }
+    }
+
+    /**
+     * Checkpoints the state from before a move, thinning out the older
+     * checkpoints if there are too many.
+     *
+     * @param state     the state after the move
+     * @param direction the move's direction
+     * @param from      the player's cell before the move
+     * @param length    how many cells the player moved
+     */
+    private void addCheckpoint(GameState state, Direction direction,
+                               int from, int length) {
+        if (!this.checkpoints.isEmpty() && this.checkpoints.get(
+                this.checkpoints.size() - 1).moves == this.moves)
+            return;
+
+        // Take the move's trail back off the signature of the new state.
+        StateSignature after = StateSignature.of(state);
+        int height = state.getHeight();
+        int width = state.getWidth();
+        int row = from / width;
+        int col = from % width;
+        for (int i = 0; i < length; i++) {
+            StateSignature.clear(after.bits, row * width + col);
+            row = Math.floorMod(row + direction.getRowDelta(), height);
+            col = Math.floorMod(col + direction.getColDelta(), width);
+        }
+        Checkpoint checkpoint = new Checkpoint(this.moves,
+            new StateSignature(from, after.bits));
+
+        if (this.maxCheckpoints == 0)
+            this.maxCheckpoints = (int) Math.max(2,
+                this.checkpointBytes / checkpointBytes(checkpoint));
+        this.checkpoints.add(checkpoint);
+
+        // Keep the oldest and every other one after it.
+        if (this.checkpoints.size() > this.maxCheckpoints) {
+            int kept = 0;
+            for (int i = 0; i < this.checkpoints.size(); i += 2)
+                this.checkpoints.set(kept++, this.checkpoints.get(i));
+            this.checkpoints.subList(kept, this.checkpoints.size()).clear();
+        }
+    }
+
+    /**
+     * @param checkpoint a checkpoint
+     * @return           roughly how much heap it takes up, bytes
+     */
+    private static long checkpointBytes(Checkpoint checkpoint) {
+        return OBJECT_BYTES + REFERENCE_BYTES + Integer.BYTES
+            + OBJECT_BYTES + REFERENCE_BYTES + 2 * Integer.BYTES
+            + OBJECT_BYTES
+            + (long) Long.BYTES * checkpoint.signature.bits.length;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * The cells a player passes through while moving, in order, starting with
+ * the cell the move started from. Consecutive moves recorded into the same
+ * MovePath continue one path. A move that wraps around an edge of the board
+ * shows up as two consecutive cells that aren't next to each other.
+ *
+ * The backing arrays only grow, so a MovePath that is cleared and reused
+ * stops allocating once it has seen its longest path.
+ */
+public class MovePath {
+
+    // Initial capacity of the backing arrays.
+    static final int DEFAULT_CAPACITY = 32;
+
+    // Row and column of each cell, in the order they were visited.
+    private int[] rows = new int[DEFAULT_CAPACITY];
+    private int[] cols = new int[DEFAULT_CAPACITY];
+
+    // Number of cells in the path.
+    private int length;
+
+    /**
+     * Empties the path, keeping its storage.
+     */
+    void clear() {
+        this.length = 0;
+    }
+
+    /**
+     * Appends a cell, unless it is already the last cell of the path
+     * (as happens when one move starts where the last one ended).
+     *
+     * @param row row of the cell
+     * @param col column of the cell
+     */
+    void add(int row, int col) {
+        if (this.length > 0 && this.rows[this.length - 1] == row
+                            && this.cols[this.length - 1] == col)
+            return;
+
+        if (this.length == this.rows.length) {
+            this.rows = java.util.Arrays.copyOf(this.rows, this.length * 2);
+            this.cols = java.util.Arrays.copyOf(this.cols, this.length * 2);
+        }
+
+        this.rows[this.length] = row;
+        this.cols[this.length] = col;
+        this.length++;
+    }
+
+    /**
+     * @return the number of cells in the path
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * @param i index of a cell in the path
+     * @return  the row of that cell
+     */
+    int getRow(int i) {
+        return this.rows[i];
+    }
+
+    /**
+     * @param i index of a cell in the path
+     * @return  the column of that cell
+     */
+    int getCol(int i) {
+        return this.cols[i];
+    }
+
+    /**
+     * Checks whether the player got to cell i by wrapping around an edge
+     * of the board rather than stepping to a neighbouring cell.
+     *
+     * @param i index of a cell in the path, at least 1
+     * @return  true if cell i isn't next to cell i - 1
+     */
+    boolean isWrap(int i) {
+        return Math.abs(this.rows[i] - this.rows[i - 1])
+             + Math.abs(this.cols[i] - this.cols[i - 1]) != 1;
+    }
+
+    /**
+     * Checks whether the path ends on a particular cell.
+     *
+     * @param row row of the cell
+     * @param col column of the cell
+     * @return    true if the path is not empty and ends on that cell
+     */
+    boolean endsAt(int row, int col) {
+        return this.length > 0 && this.rows[this.length - 1] == row
+                               && this.cols[this.length - 1] == col;
+    }
+}
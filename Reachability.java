@@ -0,0 +1,94 @@
+/**
+ * Checks whether the goal can still be reached from the player at all,
+ * ignoring how slides work: a flood fill from the player over cells that are
+ * free (space or goal), stepping between neighbours with the same wrap-around
+ * at the edges that GameState.move() uses. If the fill never touches the
+ * goal, no sequence of moves can, so a solver can drop the state.
+ *
+ * The fill reuses its buffers between calls. Cells are marked visited with
+ * the number of the current check rather than cleared, so a check costs only
+ * as much as the cells it visits. Instances are not thread safe; give each
+ * search its own.
+ */
+public class Reachability {
+
+    // For each cell, the number of the last check that visited it.
+    private int[] visited = new int[0];
+
+    // Cells waiting to be expanded, as row * width + col.
+    private int[] queue = new int[0];
+
+    // Numbers the current check; bumped by each call.
+    private int epoch;
+
+    /**
+     * Flood fills from the player to see if the goal is still reachable.
+     *
+     * @param state the state to check
+     * @return      true if the goal is connected to the player
+     */
+    boolean canReachGoal(GameState state) {
+        int height = state.getHeight();
+        int width = state.getWidth();
+        int cells = height * width;
+
+        // Grow the buffers for bigger boards, starting marks afresh.
+        if (this.visited.length < cells) {
+            this.visited = new int[cells];
+            this.queue = new int[cells];
+            this.epoch = 0;
+        }
+        if (++this.epoch == 0) {
+            java.util.Arrays.fill(this.visited, 0);
+            this.epoch = 1;
+        }
+
+        int goal = state.getGoalRow() * width + state.getGoalCol();
+        int head = 0;
+        int tail = 0;
+        int start = state.playerRow * width + state.playerCol;
+        this.visited[start] = this.epoch;
+        this.queue[tail++] = start;
+
+        while (head < tail) {
+            int cell = this.queue[head++];
+            if (cell == goal)
+                return true;
+
+            int row = cell / width;
+            int col = cell % width;
+            int up = row == 0 ? height - 1 : row - 1;
+            int down = row == height - 1 ? 0 : row + 1;
+            int left = col == 0 ? width - 1 : col - 1;
+            int right = col == width - 1 ? 0 : col + 1;
+
+            tail = visit(state, up * width + col, tail);
+            tail = visit(state, row * width + right, tail);
+            tail = visit(state, down * width + col, tail);
+            tail = visit(state, row * width + left, tail);
+        }
+        return false;
+    }
+
+    /**
+     * Queues a neighbouring cell if it's free and not yet visited.
+     *
+     * @param state the state being filled
+     * @param cell  the cell, as row * width + col
+     * @param tail  the end of the queue
+     * @return      the new end of the queue
+     */
+    private int visit(GameState state, int cell, int tail) {
+        if (this.visited[cell] == this.epoch)
+            return tail;
+
+        // The player's own cell is always visited first, so any cell
+        // that isn't trail or obstacle here is a space or the goal.
+        if (!state.isOpen(cell))
+            return tail;
+
+        this.visited[cell] = this.epoch;
+        this.queue[tail] = cell;
+        return tail + 1;
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * Counters kept by a search for a solution, for reporting how much work
+ * it took.
+ */
+public class SearchStats {
+
+    // Number of states whose moves were tried.
+    long nodesExpanded;
+
+    // Number of states dropped because the goal could no longer be reached.
+    long statesPruned;
+}
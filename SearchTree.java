@@ -0,0 +1,111 @@
+import java.util.*;
+
+/**
+ * The paths of a search, stored as a tree of nodes numbered in the order
+ * they are added. Each node keeps only the index of its parent and the move
+ * from the parent to it, packed 2 bits to a move, so a node costs a little
+ * over 4 bytes no matter how deep it is. Paths are rebuilt once, when a
+ * solution is found, rather than kept or copied per node.
+ */
+public class SearchTree {
+
+    // The parent of a root node.
+    static final int NO_PARENT = -1;
+
+    // Moves packed into each long, 2 bits each.
+    static final int MOVES_PER_LONG = Long.SIZE / 2;
+
+    // Nodes room is made for at first.
+    static final int INITIAL_CAPACITY = 1024;
+
+    // The parent of each node.
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    // The move into each node, by rotation count.
+    private long[] moves = new long[INITIAL_CAPACITY / MOVES_PER_LONG];
+
+    // The number of nodes.
+    private int size;
+
+    /**
+     * Adds a node with no parent.
+     *
+     * @return the new node's index
+     */
+    int addRoot() {
+        return add(NO_PARENT, Direction.UP);
+    }
+
+    /**
+     * Adds a node.
+     *
+     * @param parent the parent's index
+     * @param move   the move from the parent to the new node
+     * @return       the new node's index
+     */
+    int add(int parent, Direction move) {
+        if (this.size == this.parents.length) {
+            this.parents = Arrays.copyOf(this.parents, this.size * 2);
+            this.moves = Arrays.copyOf(this.moves,
+                                       this.size * 2 / MOVES_PER_LONG);
+        }
+
+        int node = this.size++;
+        this.parents[node] = parent;
+        int shift = (node % MOVES_PER_LONG) * 2;
+        this.moves[node / MOVES_PER_LONG] |=
+            (long) move.getRotationCount() << shift;
+        return node;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @param node a node's index
+     * @return     its parent's index, or NO_PARENT
+     */
+    int getParent(int node) {
+        return this.parents[node];
+    }
+
+    /**
+     * @param node a node's index (not a root)
+     * @return     the move from its parent to it
+     */
+    Direction getMove(int node) {
+        int shift = (node % MOVES_PER_LONG) * 2;
+        int code = (int) (this.moves[node / MOVES_PER_LONG] >>> shift) & 3;
+        return Direction.values()[code];
+    }
+
+    /**
+     * Rebuilds the moves from the root to a node.
+     *
+     * @param node a node's index
+     * @return     the moves, root first
+     */
+    List<Direction> pathTo(int node) {
+        List<Direction> path = pathFrom(node);
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Rebuilds the moves from a node back up to the root. For a tree
+     * grown backward from the goal, this is the order they're played in.
+     *
+     * @param node a node's index
+     * @return     the moves, the node's own first
+     */
+    List<Direction> pathFrom(int node) {
+        List<Direction> path = new ArrayList<Direction>();
+        for (; this.parents[node] != NO_PARENT; node = this.parents[node])
+            path.add(getMove(node));
+        return path;
+    }
+}
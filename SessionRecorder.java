@@ -0,0 +1,238 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes an append-only log of a play session: the level as it was when the
+ * session started, followed by every recordAndMove(), undo() and redo()
+ * made on it.
+ * Each event takes 3 bits, so even very long sessions stay tiny. Sessions
+ * are read back and re-run by SessionReplay.
+ *
+ * Recording is off unless the system property named by DIRECTORY_PROPERTY
+ * is set to a directory, e.g. java -Dstreamline.sessions=logs GuiStreamline.
+ * Only whole bytes are written as play goes on; the last partial byte is
+ * padded and written by close(), which also runs when the JVM exits.
+ */
+public class SessionRecorder implements Closeable {
+
+    // System property naming the directory session logs are written to.
+    static final String DIRECTORY_PROPERTY = "streamline.sessions";
+
+    // Identifies a session log, and the version of its format.
+    static final int MAGIC = 0x534c4f47;
+    static final int VERSION = 2;
+
+    // Each event is one code of CODE_BITS bits. Codes 0 - 3 are moves in
+    // the Direction with that rotation count.
+    static final int CODE_BITS = 3;
+    static final int UNDO_CODE = 4;
+
+    // Added in version 2; version 1 logs are otherwise the same.
+    static final int REDO_CODE = 5;
+
+    // Unused bits of the last byte are set to 1, which reads as END_CODE.
+    static final int END_CODE = (1 << CODE_BITS) - 1;
+
+    // How many whole bytes are buffered before they're written out.
+    static final int FLUSH_BYTES = 64;
+
+    // Recorders that still need closing when the JVM exits.
+    private static final Set<SessionRecorder> open =
+        Collections.synchronizedSet(new LinkedHashSet<SessionRecorder>());
+
+    // Counts sessions started by this JVM, to keep file names unique.
+    private static int sessionCount;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            List<SessionRecorder> remaining;
+            synchronized (open) {
+                remaining = new ArrayList<SessionRecorder>(open);
+            }
+            for (SessionRecorder recorder : remaining)
+                recorder.close();
+        }));
+    }
+
+    // Where the log goes.
+    private final OutputStream out;
+
+    // Bits not yet written out, and how many of them there are.
+    private int pendingBits;
+    private int pendingBitCount;
+
+    // Whole bytes written since the last flush.
+    private int unflushedBytes;
+
+    // Set once close() has run.
+    private boolean closed;
+
+    /**
+     * Starts a session log by writing the level header.
+     *
+     * @param out   where to write the log; closed by close()
+     * @param start the state the session starts from
+     */
+    public SessionRecorder(OutputStream out, GameState start)
+            throws IOException {
+        this.out = new BufferedOutputStream(out);
+        writeHeader(new DataOutputStream(this.out), start);
+        this.out.flush();
+        open.add(this);
+    }
+
+    /**
+     * Starts recording a game if DIRECTORY_PROPERTY is set. Failing to
+     * start a log only prints a warning; the game goes on unrecorded.
+     *
+     * @param game the game to record, from its current state on
+     */
+    static void attachIfEnabled(Streamline game) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || game.currentState == null)
+            return;
+
+        int number;
+        synchronized (SessionRecorder.class) {
+            number = ++sessionCount;
+        }
+        File file = new File(directory, String.format("session-%d-%d.slog",
+            System.currentTimeMillis(), number));
+
+        try {
+            file.getParentFile().mkdirs();
+            game.recorder = new SessionRecorder(new FileOutputStream(file),
+                                                game.currentState);
+        } catch (IOException e) {
+            System.err.println("Not recording session: " + e);
+        }
+    }
+
+    /**
+     * Writes a level the same way for every version of the log: board size,
+     * player and goal, then every cell of the board as a byte.
+     *
+     * @param data  the stream to write to
+     * @param state the level
+     */
+    static void writeHeader(DataOutputStream data, GameState state)
+            throws IOException {
+        int height = state.getHeight();
+        int width = state.getWidth();
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(height);
+        data.writeInt(width);
+        data.writeInt(state.playerRow);
+        data.writeInt(state.playerCol);
+        data.writeInt(state.getGoalRow());
+        data.writeInt(state.getGoalCol());
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                data.writeByte(state.charAt(i, j));
+    }
+
+    /**
+     * Reads back a level written by writeHeader().
+     *
+     * @param data   the stream to read from
+     * @param source names the stream in error messages
+     * @return       the level
+     */
+    static GameState readHeader(DataInputStream data, String source)
+            throws IOException {
+        if (data.readInt() != MAGIC)
+            throw new IOException(source + " is not a session log");
+        int version = data.readUnsignedByte();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported session log version "
+                                  + version);
+
+        int height = data.readInt();
+        int width = data.readInt();
+        int playerRow = data.readInt();
+        int playerCol = data.readInt();
+        int goalRow = data.readInt();
+        int goalCol = data.readInt();
+        char[][] cells = new char[height][width];
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                cells[i][j] = (char) data.readUnsignedByte();
+        return new GameState(cells, playerRow, playerCol, goalRow, goalCol);
+    }
+
+    /**
+     * Records a recordAndMove() call, whether or not it moved the player.
+     *
+     * @param direction the direction moved in
+     */
+    synchronized void recordMove(Direction direction) {
+        append(direction.getRotationCount());
+    }
+
+    /**
+     * Records an undo() call.
+     */
+    synchronized void recordUndo() {
+        append(UNDO_CODE);
+    }
+
+    /**
+     * Records a redo() call.
+     */
+    synchronized void recordRedo() {
+        append(REDO_CODE);
+    }
+
+    /**
+     * Adds one code to the log, writing out any whole bytes.
+     *
+     * @param code the event code
+     */
+    private void append(int code) {
+        if (this.closed)
+            return;
+
+        this.pendingBits = (this.pendingBits << CODE_BITS) | code;
+        this.pendingBitCount += CODE_BITS;
+
+        try {
+            while (this.pendingBitCount >= Byte.SIZE) {
+                this.pendingBitCount -= Byte.SIZE;
+                this.out.write(this.pendingBits >>> this.pendingBitCount);
+                this.pendingBits &= (1 << this.pendingBitCount) - 1;
+
+                if (++this.unflushedBytes >= FLUSH_BYTES) {
+                    this.out.flush();
+                    this.unflushedBytes = 0;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Stopped recording session: " + e);
+            close();
+        }
+    }
+
+    /**
+     * Pads and writes the last partial byte, then closes the log. Further
+     * events are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+        open.remove(this);
+
+        try {
+            if (this.pendingBitCount > 0) {
+                int padding = Byte.SIZE - this.pendingBitCount;
+                this.out.write((this.pendingBits << padding)
+                               | ((1 << padding) - 1));
+            }
+            this.out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads a session log written by SessionRecorder and re-runs it against the
+ * game engine, headless. Used to reproduce what a player did (e.g. from a
+ * lag report) and as realistic input for benchmarks.
+ */
+public class SessionReplay {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java SessionReplay <session file>          - "
+        + "replay a session once and print the final board\n" +
+        "> java SessionReplay <session file> <times>  - "
+        + "replay it repeatedly and report moves per second\n";
+
+    // Nanoseconds per second, for reporting.
+    static final double NANOS_PER_SECOND = 1e9;
+
+    // The state the session started from.
+    final GameState start;
+
+    // The recorded events, one code per byte, and how many there are.
+    final byte[] codes;
+    final int count;
+
+    /**
+     * Creates a replay from an already decoded session.
+     *
+     * @param start the state the session started from
+     * @param codes the event codes, one per byte
+     * @param count the number of codes to use
+     */
+    SessionReplay(GameState start, byte[] codes, int count) {
+        this.start = start;
+        this.codes = codes;
+        this.count = count;
+    }
+
+    /**
+     * Reads and decodes a session log.
+     *
+     * @param filename the log to read
+     * @return         the decoded session
+     */
+    static SessionReplay read(String filename) throws IOException {
+        try (DataInputStream data = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+
+            // Rebuild the level the session started on.
+            GameState start = SessionRecorder.readHeader(data, filename);
+
+            // Unpack the codes, which may straddle byte boundaries.
+            byte[] codes = new byte[1024];
+            int count = 0;
+            int bits = 0;
+            int bitCount = 0;
+            int next;
+            decode:
+            while ((next = data.read()) != -1) {
+                bits = (bits << Byte.SIZE) | next;
+                bitCount += Byte.SIZE;
+                while (bitCount >= SessionRecorder.CODE_BITS) {
+                    bitCount -= SessionRecorder.CODE_BITS;
+                    int code = (bits >>> bitCount)
+                             & SessionRecorder.END_CODE;
+                    if (code == SessionRecorder.END_CODE)
+                        break decode;
+                    if (count == codes.length)
+                        codes = Arrays.copyOf(codes, count * 2);
+                    codes[count++] = (byte) code;
+                }
+                bits &= (1 << bitCount) - 1;
+            }
+
+            return new SessionReplay(start, codes, count);
+        }
+    }
+
+    /**
+     * Replays the whole session on a fresh game.
+     *
+     * @return the game after the last event
+     */
+    Streamline replay() {
+        Streamline game = new Streamline(this.start);
+        Direction[] dirs = Direction.values();
+        for (int i = 0; i < this.count; i++) {
+            int code = this.codes[i];
+            if (code == SessionRecorder.UNDO_CODE)
+                game.undo();
+            else if (code == SessionRecorder.REDO_CODE)
+                game.redo();
+            else
+                game.recordAndMove(dirs[code]);
+        }
+        return game;
+    }
+
+    /**
+     * Replays a session log, once or repeatedly as a benchmark.
+     *
+     * @param args the log, and optionally how many times to replay it
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        SessionReplay session = read(args[0]);
+        System.out.printf("Session of %d events on a %dx%d board\n",
+            session.count, session.start.getHeight(),
+            session.start.getWidth());
+
+        int times = args.length == 2 ? Integer.parseInt(args[1]) : 1;
+        Streamline game = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < times; i++)
+            game = session.replay();
+        long elapsed = System.nanoTime() - begin;
+
+        System.out.print(game.currentState);
+        if (game.currentState.levelPassed)
+            System.out.println(Streamline.WIN_MESSAGE);
+        if (times > 1)
+            System.out.printf("%d replays in %.3f s, %.0f events per second\n",
+                times, elapsed / NANOS_PER_SECOND,
+                (double) session.count * times * NANOS_PER_SECOND / elapsed);
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A persistent, size-bounded cache of level solutions. Entries are keyed by
+ * a content hash of a GameState's board, player and goal, so the same level
+ * loaded from any file (or reached in the GUI) maps to the same entry.
+ *
+ * The cache keeps its entries in least-recently-used order and evicts the
+ * eldest entry once it holds more than its maximum number of entries. The
+ * whole cache is rewritten to disk every time an entry is added.
+ *
+ * Several processes (e.g. --solve runs, the GUI and CI jobs) may share one
+ * cache file. Each save holds a lock on a LOCK_SUFFIX file next to it,
+ * first merges in whatever other processes have saved since, then writes
+ * a temporary file of its own and atomically moves it over the cache.
+ */
+public class SolutionCache {
+
+    // The name of the file the default cache is stored in.
+    static final String CACHE_FILE_NAME = "streamline_solution_cache";
+
+    // Maximum number of solutions the default cache holds.
+    static final int DEFAULT_MAX_ENTRIES = 512;
+
+    // Stored in place of a solution when a level has no solution.
+    static final String UNSOLVABLE = "-";
+
+    // Characters used to encode each direction of a stored solution.
+    static final String DIRECTION_CHARS = "URDL";
+
+    // Separates a key from its solution in the cache file.
+    static final char SEPARATOR = ' ';
+
+    // Appended to the cache file's name to name the file locked by saves.
+    static final String LOCK_SUFFIX = ".lock";
+
+    // Used to name temporary files; the rest of the name is random.
+    static final String TEMP_SUFFIX = ".tmp";
+
+    // Lazily created cache shared by GameManager and GuiStreamline.
+    private static SolutionCache defaultCache;
+
+    // Where this cache is persisted.
+    private final File file;
+
+    // Key -> encoded solution, iterated from least to most recently used.
+    private final LinkedHashMap<String, String> entries;
+
+    /**
+     * Creates a cache backed by the given file, loading any entries that
+     * were stored in it by a previous run.
+     *
+     * @param file       the file to load from and save to
+     * @param maxEntries the number of entries kept before evicting
+     */
+    public SolutionCache(File file, final int maxEntries) {
+        this.file = file;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> e) {
+                return size() > maxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Returns the cache stored in CACHE_FILE_NAME in the working directory.
+     *
+     * @return the default solution cache
+     */
+    static synchronized SolutionCache getDefault() {
+        if (defaultCache == null)
+            defaultCache = new SolutionCache(new File(CACHE_FILE_NAME),
+                                             DEFAULT_MAX_ENTRIES);
+        return defaultCache;
+    }
+
+    /**
+     * Computes the cache key of a game state: a SHA-256 hash over the board
+     * dimensions, the player and goal positions, and every board cell.
+     *
+     * @param state the game state to hash
+     * @return      the key as a hex string
+     */
+    static String keyOf(GameState state) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int height = state.getHeight();
+        int width = state.getWidth();
+        byte[] bytes = new byte[6 * 4 + height * width];
+        int pos = 0;
+        int[] header = { height, width, state.playerRow, state.playerCol,
+                         state.getGoalRow(), state.getGoalCol() };
+        for (int value : header) {
+            bytes[pos++] = (byte) (value >>> 24);
+            bytes[pos++] = (byte) (value >>> 16);
+            bytes[pos++] = (byte) (value >>> 8);
+            bytes[pos++] = (byte) value;
+        }
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                bytes[pos++] = (byte) state.charAt(i, j);
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest(bytes))
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * Computes the cache key of a game state for a given solver. Solvers
+     * other than DFS get their own entries, since e.g. their solutions may
+     * be shorter.
+     *
+     * @param state the game state to hash
+     * @param mode  the solver the entry is for
+     * @return      the key
+     */
+    static String keyOf(GameState state, SolverMode mode) {
+        String key = keyOf(state);
+        return mode == SolverMode.DFS ? key : key + '-' + mode.getLabel();
+    }
+
+    /**
+     * Checks whether a result (solution or "unsolvable") is cached for a key.
+     *
+     * @param key a key from keyOf()
+     * @return    true if get() can answer for this key
+     */
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Looks up the cached solution for a key and marks it recently used.
+     *
+     * @param key a key from keyOf()
+     * @return    a fresh copy of the solution, or null if the level was
+     *            cached as unsolvable or is not cached at all
+     */
+    synchronized List<Direction> get(String key) {
+        String encoded = entries.get(key);
+        if (encoded == null || UNSOLVABLE.equals(encoded))
+            return null;
+
+        List<Direction> solution = new ArrayList<Direction>();
+        for (int i = 0; i < encoded.length(); i++) {
+            int index = DIRECTION_CHARS.indexOf(encoded.charAt(i));
+            solution.add(Direction.values()[index]);
+        }
+        return solution;
+    }
+
+    /**
+     * Stores a solution (or null for "unsolvable") and saves the cache.
+     *
+     * @param key      a key from keyOf()
+     * @param solution the solution found for that key, or null
+     */
+    synchronized void put(String key, List<Direction> solution) {
+        String encoded = UNSOLVABLE;
+        if (solution != null) {
+            StringBuilder builder = new StringBuilder();
+            for (Direction dir : solution)
+                builder.append(DIRECTION_CHARS.charAt(dir.getRotationCount()));
+            encoded = builder.toString();
+        }
+        entries.put(key, encoded);
+        save(null);
+    }
+
+    /**
+     * Forgets a key's entry, e.g. a solution found not to work, and saves
+     * the cache without it.
+     *
+     * @param key a key from keyOf()
+     */
+    synchronized void remove(String key) {
+        entries.remove(key);
+        save(key);
+    }
+
+    /**
+     * Reads entries from the cache file, eldest first. A missing or
+     * unreadable file simply leaves the cache empty, and lines that
+     * aren't a valid entry (e.g. edited by hand) are skipped.
+     */
+    private void load() {
+        try {
+            read(entries);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the valid entries of the cache file, eldest first.
+     *
+     * @param into where to put them
+     */
+    private void read(Map<String, String> into) throws IOException {
+        if (!file.exists())
+            return;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int split = line.indexOf(SEPARATOR);
+                if (split < 0) continue;
+                String value = line.substring(split + 1);
+                if (!isValid(value)) continue;
+                into.put(line.substring(0, split), value);
+            }
+        }
+    }
+
+    /**
+     * Checks that a stored value can be decoded by get().
+     *
+     * @param value a value read from the cache file
+     * @return      true if it's UNSOLVABLE or only DIRECTION_CHARS
+     */
+    private static boolean isValid(String value) {
+        if (UNSOLVABLE.equals(value))
+            return true;
+        for (int i = 0; i < value.length(); i++) {
+            if (DIRECTION_CHARS.indexOf(value.charAt(i)) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves the cache, holding the lock file so that only one process (and
+     * one thread in this one) saves at a time. Entries other processes
+     * have saved since this cache was loaded are merged in first, as the
+     * eldest, so they aren't lost.
+     *
+     * @param removed a key just removed, not to be merged back in, or null
+     */
+    private void save(String removed) {
+        File lockFile = new File(file.getPath() + LOCK_SUFFIX);
+        synchronized (SolutionCache.class) {
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    merge(removed);
+                    write();
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Adds the cache file's entries that this cache doesn't have, as its
+     * eldest entries (the eviction limit still applies).
+     *
+     * @param removed a key to leave out, or null
+     */
+    private void merge(String removed) throws IOException {
+        LinkedHashMap<String, String> merged =
+            new LinkedHashMap<String, String>();
+        read(merged);
+        merged.keySet().removeAll(entries.keySet());
+        merged.remove(removed);
+        if (merged.isEmpty())
+            return;
+
+        merged.putAll(entries);
+        entries.clear();
+        entries.putAll(merged);
+    }
+
+    /**
+     * Writes all entries to a temporary file of this process's own, eldest
+     * first, then atomically moves it over the cache file, so a crash (or
+     * a full disk) never leaves a half-written or missing cache.
+     */
+    private void write() throws IOException {
+        Path parent = file.getAbsoluteFile().getParentFile().toPath();
+        Path temp = Files.createTempFile(parent, file.getName(), TEMP_SUFFIX);
+
+        // A BufferedWriter (unlike a PrintWriter) throws on a failed write,
+        // e.g. a full disk, so a truncated file is never moved into place.
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp,
+                    StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : entries.entrySet())
+                    writer.write(entry.getKey() + SEPARATOR
+                                 + entry.getValue() + '\n');
+            }
+            try {
+                Files.move(temp, file.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
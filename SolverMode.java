@@ -0,0 +1,58 @@
+/**
+ * The ways GameManager can search for a solution, each selected by its own
+ * command line token.
+ */
+public enum SolverMode
+{
+    DFS("--solve", "dfs"),
+    BIDIRECTIONAL("--solve-bidir", "bidir"),
+    IDA_STAR("--solve-ida", "ida"),
+    BFS("--solve-bfs", "bfs"),
+    EXTERNAL_BFS("--solve-external", "external"),
+    DISTRIBUTED("--solve-distributed", "distributed");
+
+    private final String token;
+    private final String label;
+
+    /**
+     * Constructor for the enum
+     *
+     * @param token see getToken()
+     * @param label see getLabel()
+     */
+    SolverMode(String token, String label)
+    {
+        this.token = token;
+        this.label = label;
+    }
+
+    /**
+     * @return the command line token that selects this mode
+     */
+    public String getToken()
+    {
+        return token;
+    }
+
+    /**
+     * @return a short name for reports, flight recordings and cache keys
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * Find the mode a command line token selects.
+     *
+     * @param token a command line argument
+     * @return      the mode, or null if the token isn't one
+     */
+    public static SolverMode fromToken(String token)
+    {
+        for (SolverMode mode : values())
+            if (mode.token.equals(token))
+                return mode;
+        return null;
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * A worker process for DistributedSolver. It connects to the coordinator,
+ * then searches whatever units it's sent depth first over the macro-move
+ * graph, one at a time, until told to stop.
+ *
+ * The search keeps its own stack so that, when the coordinator asks for
+ * work to steal, it can give away the untried branch nearest the unit's
+ * root (the one most likely to be a big subtree) and carry on with the
+ * rest. Messages are checked for every CHECK_INTERVAL states expanded, so
+ * the worker only ever uses one thread.
+ */
+public class SolverWorker {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java SolverWorker <host> <port>  - "
+        + "work for the DistributedSolver coordinator at host:port\n";
+
+    // States expanded between checks for messages.
+    static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * One state on the search stack and the macro-moves left to try.
+     */
+    static class Frame {
+
+        // The macro-moves leaving the state, and how many have been
+        // taken (the last one taken leads to the frame above).
+        final List<MacroMoveGraph.MacroMove> moves;
+        int taken;
+
+        // Untried moves from this index on have been given away.
+        int end;
+
+        Frame(List<MacroMoveGraph.MacroMove> moves) {
+            this.moves = moves;
+            this.end = moves.size();
+        }
+    }
+
+    // The connection to the coordinator.
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // States expanded in the current unit.
+    private long nodes;
+
+    // Set once the coordinator says to stop.
+    private boolean stopped;
+
+    /**
+     * Connects to a coordinator.
+     *
+     * @param socket the connection
+     */
+    SolverWorker(Socket socket) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(
+            socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            socket.getOutputStream()));
+    }
+
+    /**
+     * Works until the coordinator says to stop or goes away.
+     *
+     * @param args the coordinator's host and port
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            new SolverWorker(socket).run();
+        } catch (IOException e) {
+            // The coordinator finished (or died) without saying STOP.
+        }
+    }
+
+    /**
+     * Asks for work, then handles messages until told to stop.
+     */
+    void run() throws IOException {
+        this.out.writeByte(DistributedSolver.READY);
+        this.out.flush();
+
+        while (!this.stopped)
+            handle(this.in.readUnsignedByte(), null,
+                   DistributedSolver.NO_UNIT);
+    }
+
+    /**
+     * Handles one message from the coordinator.
+     *
+     * @param code  the message code (its body is still to be read)
+     * @param stack the search stack if searching a unit, else null
+     * @param unit  the unit being searched, or NO_UNIT
+     */
+    private void handle(int code, List<Frame> stack, int unit)
+            throws IOException {
+        switch (code) {
+            case DistributedSolver.WORK: {
+                int id = this.in.readInt();
+                GameState state = SessionRecorder.readHeader(this.in,
+                                                             "coordinator");
+                search(id, state);
+                break;
+            }
+            case DistributedSolver.STEAL:
+                if (stack == null || !split(stack, unit)) {
+                    this.out.writeByte(DistributedSolver.NO_SPLIT);
+                    this.out.writeInt(unit);
+                    this.out.flush();
+                }
+                break;
+            case DistributedSolver.STOP:
+                this.stopped = true;
+                break;
+            default:
+                throw new IOException("Unknown message " + code);
+        }
+    }
+
+    /**
+     * Searches one unit depth first and reports the result, unless told
+     * to stop first.
+     *
+     * @param id    the unit's number
+     * @param start the unit's state
+     */
+    private void search(int id, GameState start) throws IOException {
+        MacroMoveGraph graph = new MacroMoveGraph(start);
+        Reachability reach = new Reachability();
+        List<Frame> stack = new ArrayList<Frame>();
+        this.nodes = 1;
+
+        // A split can hand over a branch that is already solved.
+        if (start.levelPassed) {
+            found(id, stack);
+            return;
+        }
+        stack.add(new Frame(graph.macroMovesFrom(start)));
+
+        while (!stack.isEmpty()) {
+            if (this.nodes % CHECK_INTERVAL == 0) {
+                while (this.in.available() > 0 && !this.stopped)
+                    handle(this.in.readUnsignedByte(), stack, id);
+                if (this.stopped)
+                    return;
+            }
+
+            Frame top = stack.get(stack.size() - 1);
+            if (top.taken == top.end) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+
+            GameState next = top.moves.get(top.taken++).end;
+            if (next.levelPassed) {
+                found(id, stack);
+                return;
+            }
+            if (!reach.canReachGoal(next))
+                continue;
+
+            this.nodes++;
+            stack.add(new Frame(graph.macroMovesFrom(next)));
+        }
+
+        this.out.writeByte(DistributedSolver.EXHAUSTED);
+        this.out.writeInt(id);
+        this.out.writeLong(this.nodes);
+        this.out.flush();
+    }
+
+    /**
+     * Reports the solution at the top of the stack.
+     *
+     * @param id    the unit's number
+     * @param stack the search stack, whose last moves taken lead to the
+     *              goal
+     */
+    private void found(int id, List<Frame> stack) throws IOException {
+        this.out.writeByte(DistributedSolver.FOUND);
+        this.out.writeInt(id);
+        this.out.writeLong(this.nodes);
+        DistributedSolver.writeMoves(this.out, pathTo(stack, stack.size()));
+        this.out.flush();
+    }
+
+    /**
+     * Gives the coordinator the untried branch nearest the unit's root.
+     *
+     * @param stack the search stack
+     * @param unit  the unit being searched
+     * @return      false if there was nothing left to give away
+     */
+    private boolean split(List<Frame> stack, int unit) throws IOException {
+        for (int depth = 0; depth < stack.size(); depth++) {
+            Frame frame = stack.get(depth);
+            if (frame.taken == frame.end)
+                continue;
+
+            // Give away the last untried move of the frame.
+            frame.end--;
+            MacroMoveGraph.MacroMove macro = frame.moves.get(frame.end);
+            List<Direction> prefix = pathTo(stack, depth);
+            prefix.addAll(macro.moves);
+
+            this.out.writeByte(DistributedSolver.SPLIT);
+            this.out.writeInt(unit);
+            DistributedSolver.writeMoves(this.out, prefix);
+            SessionRecorder.writeHeader(this.out, macro.end);
+            this.out.flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the moves from the unit's state along the stack.
+     *
+     * @param stack the search stack
+     * @param depth how many frames to follow
+     * @return      the moves of the last macro-move taken in each of the
+     *              first depth frames
+     */
+    private static List<Direction> pathTo(List<Frame> stack, int depth) {
+        List<Direction> path = new ArrayList<Direction>();
+        for (int i = 0; i < depth; i++) {
+            Frame frame = stack.get(i);
+            path.addAll(frame.moves.get(frame.taken - 1).moves);
+        }
+        return path;
+    }
+}
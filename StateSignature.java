@@ -0,0 +1,126 @@
+/**
+ * A compact, hashable summary of a search state: the player's cell plus a
+ * bit set over the board's cells. For states of one level, the player and
+ * trail cells are all that differ, so two GameStates of the same level are
+ * equal exactly when their signatures are. Solvers use signatures in place
+ * of whole GameStates in their visited sets.
+ *
+ * Cells are numbered row * width + col.
+ */
+public class StateSignature {
+
+    // The player's cell.
+    final int player;
+
+    // One bit per cell (or more, for solvers that keep several sets).
+    final long[] bits;
+
+    // Cached hash code.
+    private final int hash;
+
+    /**
+     * Creates a signature. The bit set is kept, not copied.
+     *
+     * @param player the player's cell
+     * @param bits   the bit set
+     */
+    StateSignature(int player, long[] bits) {
+        this.player = player;
+        this.bits = bits;
+        this.hash = 31 * java.util.Arrays.hashCode(bits) + player;
+    }
+
+    /**
+     * Creates the signature of a state: its player and its trail cells.
+     *
+     * @param state the state
+     * @return      its signature
+     */
+    static StateSignature of(GameState state) {
+        return new StateSignature(
+            state.playerRow * state.getWidth() + state.playerCol,
+            state.trail.clone());
+    }
+
+    /**
+     * Rebuilds the state a signature from of() was made from.
+     *
+     * @param level any state of the same level
+     * @return      a new state with this signature's player and trail
+     */
+    GameState toState(GameState level) {
+        GameState state = new GameState(level);
+        applyTo(state);
+        return state;
+    }
+
+    /**
+     * Overwrites a state's player and trail with this signature's.
+     *
+     * @param state a state of the same level as the one signed
+     */
+    void applyTo(GameState state) {
+        int width = state.getWidth();
+        int goal = state.getGoalRow() * width + state.getGoalCol();
+
+        System.arraycopy(this.bits, 0, state.trail, 0, state.trail.length);
+        state.playerRow = this.player / width;
+        state.playerCol = this.player % width;
+        state.levelPassed = this.player == goal;
+    }
+
+    /**
+     * Allocates an empty bit set.
+     *
+     * @param size the number of bits needed
+     * @return     the bit set
+     */
+    static long[] newBits(int size) {
+        return new long[(size + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /**
+     * @param bits a bit set
+     * @param i    a bit index
+     * @return     whether bit i is set
+     */
+    static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Sets bit i.
+     *
+     * @param bits a bit set
+     * @param i    a bit index
+     */
+    static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    /**
+     * Clears bit i.
+     *
+     * @param bits a bit set
+     * @param i    a bit index
+     */
+    static void clear(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof StateSignature))
+            return false;
+        StateSignature that = (StateSignature) other;
+        return this.hash == that.hash && this.player == that.player
+            && java.util.Arrays.equals(this.bits, that.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
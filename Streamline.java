@@ -31,7 +31,12 @@ public class Streamline {
     
     // GameState objects explicitly involved with Streamline.
     GameState currentState;
-    List<GameState> previousStates;
+
+    // The moves that can be undone (see MoveHistory).
+    MoveHistory history;
+
+    // Logs every move and undo when sessions are being recorded.
+    SessionRecorder recorder;
 
     // Default GameState board lengths.
     final static int DEFAULT_HEIGHT = 6;
@@ -52,6 +57,20 @@ public class Streamline {
     final static String LOWERCASE_O = "o";
     final static String LOWERCASE_Q = "q";
 
+    // The same keystrokes as characters, for reading several
+    // of them from one line of input.
+    final static char KEY_W = 'w';
+    final static char KEY_A = 'a';
+    final static char KEY_S = 's';
+    final static char KEY_D = 'd';
+    final static char KEY_U = 'u';
+    final static char KEY_R = 'r';
+    final static char KEY_O = 'o';
+    final static char KEY_Q = 'q';
+
+    // An empty line redraws the whole board (e.g. after a resize).
+    final static String EMPTY_LINE = "";
+
     // Constants used for File I/O tasks in Streamline.
     final static String GREATER_THAN = ">";
     final static String SPACE = " ";
@@ -67,7 +86,7 @@ public class Streamline {
      * Generates a game with default height and width values
      * (alongside default player and goal positions) for the
      * board, plus three random obstacles. Also initializes
-     * previousStates to an empty ArrayList.
+     * the undo history, currently empty.
      */
     public Streamline() {
 
@@ -79,8 +98,8 @@ public class Streamline {
         // Add three random obstacles to the current GameState board.
         this.currentState.addRandomObstacles(DEFAULT_OBSTACLE_COUNT);
 
-        // Initialize the list of previous states, currently empty.
-        this.previousStates = new ArrayList<GameState>();
+        // Initialize the undo history, currently empty.
+        this.history = new MoveHistory();
 
     }
 
@@ -103,8 +122,23 @@ public class Streamline {
 
         }
 
-        // Initialize previousStates to an empty ArrayList.
-        this.previousStates = new ArrayList<GameState>();
+        // Initialize the undo history, currently empty.
+        this.history = new MoveHistory();
+    }
+
+    /**
+     * Starts a game from a copy of an existing state, e.g. one
+     * that was already loaded or one read from a session log.
+     * 
+     * @param state  The state to start from.
+     */
+    public Streamline(GameState state) {
+
+        // Copy the state so the caller's stays untouched.
+        this.currentState = new GameState(state);
+
+        // Initialize the undo history, currently empty.
+        this.history = new MoveHistory();
     }
 
     /**
@@ -120,6 +154,11 @@ public class Streamline {
      */
     protected void loadFromFile(String filename) throws IOException {
 
+        // Time the load for flight recordings.
+        StreamlineEvents.LevelIoEvent event =
+            new StreamlineEvents.LevelIoEvent();
+        event.begin();
+
         // Create new File object in accordance to the parameter.
         File saveData = new File(filename);
 
@@ -134,27 +173,8 @@ public class Streamline {
         int goalRowImport = Integer.parseInt(fileReader.next());
         int goalColImport = Integer.parseInt(fileReader.next());
 
-        // Restore the board based on parameter's contents.
-        this.currentState = new GameState(boardHeight,
-                                          boardWidth,
-                                          playerRowImport,
-                                          playerColImport,
-                                          goalRowImport,
-                                          goalColImport);
-
-        // Restore the player to its found location.
-        this.currentState.playerRow = playerRowImport;
-        this.currentState.playerCol = playerColImport;
-
-        // Restore the goal to its found location.
-        this.currentState.goalRow = goalRowImport;
-        this.currentState.goalCol = goalColImport;
-
-        // Fetch the height of currentState's restored board.
-        int thisHeight = this.currentState.board.length;
-
-        // Fetch the width of currentState's restored board.
-        int thisWidth = this.currentState.board[0].length;
+        // Holds the board's characters until they've all been read.
+        char[][] cells = new char[boardHeight][boardWidth];
 
         // Begin restoring the board based on parameter's contents.
         while(fileReader.hasNextLine()) {
@@ -165,24 +185,46 @@ public class Streamline {
 
             // Iterate through the board to restore the board's
             // contents in one specified row.
-            for(int i = 0; i < thisHeight; i++) {
+            for(int i = 0; i < boardHeight; i++) {
 
                 // Fetch a new line from the scanner for every row
                 // in board that needs its contents to be restored.
                 line = new String(fileReader.nextLine());
 
-                // Restore the specified row in currentState's board.
-                for(int j = 0; j < thisWidth; j++) {
-                    this.currentState.board[i][j] = line.charAt(j);
+                // Restore the specified row in the board.
+                for(int j = 0; j < boardWidth; j++) {
+                    cells[i][j] = line.charAt(j);
                 }
 
             }
 
         }
 
+        // Restore the board, player and goal from what was read.
+        this.currentState = new GameState(cells,
+                                          playerRowImport,
+                                          playerColImport,
+                                          goalRowImport,
+                                          goalColImport);
+
+        // Fetch the height of currentState's restored board.
+        int thisHeight = this.currentState.getHeight();
+
+        // Fetch the width of currentState's restored board.
+        int thisWidth = this.currentState.getWidth();
+
         // Ensure that the scanner closes once all tasks have concluded.
         fileReader.close();
 
+        if(event.shouldCommit()) {
+            event.operation = "load";
+            event.file = filename;
+            event.bytes = saveData.length();
+            event.boardHeight = thisHeight;
+            event.boardWidth = thisWidth;
+            event.commit();
+        }
+
     }
     
     /**
@@ -194,30 +236,109 @@ public class Streamline {
      *                  like to move towards.
      */
     void recordAndMove(Direction direction) {
+        recordAndMove(direction, null);
+    }
+
+    /**
+     * Same as recordAndMove(Direction), but also appends the cells
+     * the player passes through to a MovePath (see GameState.move()).
+     * 
+     * @param direction The direction that the player would
+     *                  like to move towards.
+     * @param path      Receives the cells traversed, or null.
+     */
+    void recordAndMove(Direction direction, MovePath path) {
 
         // If null is passed in for direction, do nothing.
         if(direction == null) {
             return;
         }
 
-        // Save a copy of currentState to previousStates.
-        GameState currentStateCopy = new GameState(this.currentState);
-        this.previousStates.add(currentStateCopy);
+        // Time the move and its bookkeeping for flight recordings.
+        StreamlineEvents.HistoryEvent event =
+            new StreamlineEvents.HistoryEvent();
+        event.begin();
+
+        // Log the move if the session is being recorded.
+        this.recordEvent(direction);
+
+        // Remember where the player starts from.
+        int fromRow = this.currentState.playerRow;
+        int fromCol = this.currentState.playerCol;
 
         // Move the player in the specified direction.
-        this.currentState.move(direction);
+        this.currentState.move(direction, path);
 
-        // Fetch indicies and objects for game state comparisons.
-        int recentStateIndx = this.previousStates.size() - 1;
-        GameState previousState =
-            new GameState(this.previousStates.get(recentStateIndx));
+        // Record the move in the history; a move that changed
+        // nothing isn't recorded.
+        this.history.record(this.currentState, direction,
+                            fromRow, fromCol);
 
-        // Undo the update to previousStates that just occurred if
-        // no visible change to the board has been identified.
-        if(previousState.equals(this.currentState)) {
-            this.previousStates.remove(recentStateIndx);
+        // Finish the session log if that was the winning move.
+        this.closeRecorderIfPassed();
+
+        commitHistoryEvent(event, "recordAndMove", direction);
+
+    }
+
+    /**
+     * Logs a move (or, given null, an undo) if the session is being
+     * recorded. The log is closed once the level has been passed.
+     * 
+     * @param direction The direction moved in, or null for an undo.
+     */
+    void recordEvent(Direction direction) {
+
+        if(this.recorder == null) {
+            return;
         }
 
+        if(direction == null) {
+            this.recorder.recordUndo();
+        }
+        else {
+            this.recorder.recordMove(direction);
+        }
+
+    }
+
+    /**
+     * Closes the session log once the level has been passed.
+     */
+    void closeRecorderIfPassed() {
+        if(this.recorder != null && this.currentState.levelPassed) {
+            this.recorder.close();
+        }
+    }
+
+    /**
+     * Fills in and commits a HistoryEvent, if it is being recorded.
+     * 
+     * @param event     The event, begun before the operation.
+     * @param operation The name of the operation.
+     * @param direction The direction moved in, or null for none.
+     */
+    void commitHistoryEvent(StreamlineEvents.HistoryEvent event,
+                            String operation, Direction direction) {
+
+        if(event.shouldCommit()) {
+            event.operation = operation;
+            event.direction = direction == null ? null : direction.name();
+            event.boardHeight = this.currentState.getHeight();
+            event.boardWidth = this.currentState.getWidth();
+            event.historySize = this.history.size();
+            event.commit();
+        }
+
+    }
+
+    /**
+     * Estimates how much heap the undo history takes up.
+     * 
+     * @return Estimated size in bytes.
+     */
+    long estimateHistoryBytes() {
+        return this.history.estimateBytes();
     }
 
     /**
@@ -225,22 +346,54 @@ public class Streamline {
      */
     void undo() {
 
-        // If previousStates is empty, do nothing.
-        if(this.previousStates.size() < 1) {
+        // If the history is empty, do nothing.
+        if(this.history.isEmpty()) {
+            return;
+        }
+
+        // Time the undo for flight recordings.
+        StreamlineEvents.HistoryEvent event =
+            new StreamlineEvents.HistoryEvent();
+        event.begin();
+
+        // Log the undo if the session is being recorded.
+        this.recordEvent(null);
+
+        // Reverse the player's last move on currentState.
+        this.history.undo(this.currentState);
+
+        commitHistoryEvent(event, "undo", null);
+
+    }
+
+    /**
+     * Allows the player to redo the last turn they undid, as long
+     * as they haven't moved since.
+     */
+    void redo() {
+
+        // If there's nothing to redo, do nothing.
+        if(!this.history.canRedo()) {
             return;
         }
 
-        // Fetch the index of the object at the end of previousStates.
-        int lastStateIndex = this.previousStates.size() - 1;
+        // Time the redo for flight recordings.
+        StreamlineEvents.HistoryEvent event =
+            new StreamlineEvents.HistoryEvent();
+        event.begin();
+
+        // Log the redo if the session is being recorded.
+        if(this.recorder != null) {
+            this.recorder.recordRedo();
+        }
 
-        // Fetch the GameState object at lastStateIndex.
-        GameState recentState = this.previousStates.get(lastStateIndex);
+        // Make the undone move again on currentState.
+        this.history.redo(this.currentState);
 
-        // Update currentState to reverse the player's move.
-        this.currentState = new GameState(recentState);
+        // Finish the session log if that was the winning move.
+        this.closeRecorderIfPassed();
 
-        // Remove the restored GameState object from previousStates.
-        this.previousStates.remove(lastStateIndex);
+        commitHistoryEvent(event, "redo", null);
 
     }
 
@@ -251,59 +404,150 @@ public class Streamline {
      */
     void play() {
 
-        // Set up a Scanner object for reading incoming keystrokes. 
-        Scanner inputScanner = new Scanner(System.in);
+        // Read keystrokes from the console and draw to it.
+        play(new Scanner(System.in), AnsiRenderer.console());
+
+    }
+
+    /**
+     * Plays the game from lines of input until the level is passed,
+     * the player quits, or the input runs out. Each line may hold
+     * several keystrokes (e.g. "wwdsaau"), which are all carried out
+     * before the board is drawn again, so piped scripts and slow
+     * connections only pay for one frame per line.
+     * 
+     * @param inputScanner Where to read the player's input from.
+     * @param renderer     Where to draw the board, or null to play
+     *                     silently (e.g. when driving the game from
+     *                     a test script).
+     */
+    void play(Scanner inputScanner, AnsiRenderer renderer) {
+
+        // A new level is drawn in full.
+        if(renderer != null) {
+            renderer.invalidate();
+        }
 
         // Execute user-specified tasks on incomplete levels.
         while(this.currentState.levelPassed == false){
 
-            // Print out the current game's board.
-            System.out.print(this.currentState.toString()); 
+            if(renderer != null) {
+
+                // Draw the current game's board (only what changed).
+                renderer.render(this.currentState);
 
-            // Indicate that some user input may now be taken.
-            System.out.print(GREATER_THAN + SPACE);
+                // Indicate that some user input may now be taken.
+                System.out.print(GREATER_THAN + SPACE);
+
+            }
+
+            // Stop once the input has run out (e.g. end of a script).
+            if(!inputScanner.hasNextLine()) {
+                return;
+            }
 
             // Store the user's keystroke(s) as a String.
             String userInput = inputScanner.nextLine();
 
-            // Determine what to execute based on the user input.
-            switch (userInput) {
+            // Wipe the old prompt and input, keeping whatever the
+            // keystrokes print (e.g. the save message) until the next.
+            if(renderer != null) {
+                renderer.clearInput();
+            }
+
+            // For an empty line, redraw the whole board next time.
+            if(userInput.equals(EMPTY_LINE)) {
+                if(renderer != null) {
+                    renderer.invalidate();
+                }
+                continue;
+            }
+
+            // Carry out the keystrokes; "q" exits the game.
+            if(!runCommands(userInput)) {
+                return;
+            }
+
+        }
+
+        // Indicate that the level has been passed, and return.
+        if(renderer != null) {
+            renderer.render(this.currentState);
+            System.out.println(WIN_MESSAGE);
+        }
+
+    }
+
+    /**
+     * Carries out a string of keystrokes in order, without drawing
+     * anything. Whitespace is skipped, and anything after the level
+     * is passed is ignored. A string holding any other unknown
+     * character is ignored as a whole, as a typo like "hello" must
+     * not save the game just because it contains an "o".
+     * 
+     * @param commands The keystrokes, e.g. "wwdsaau".
+     * @return         False if a "q" was reached, else true.
+     */
+    boolean runCommands(CharSequence commands) {
+
+        // Check that every character is a keystroke before doing any.
+        for(int i = 0; i < commands.length(); i++) {
+            char key = commands.charAt(i);
+            if(!isKey(key) && !Character.isWhitespace(key)) {
+                return true;
+            }
+        }
+
+        for(int i = 0; i < commands.length(); i++) {
+
+            // Nothing more to do once the level is passed.
+            if(this.currentState.levelPassed) {
+                break;
+            }
+
+            // Determine what to execute based on the keystroke.
+            switch (commands.charAt(i)) {
 
                 // For keystroke "w", move up and record movement.
-                case LOWERCASE_W:
+                case KEY_W:
                     recordAndMove(Direction.UP);
                     break;
 
                 // For keystroke "a", move left and record movement.
-                case LOWERCASE_A:
+                case KEY_A:
                     recordAndMove(Direction.LEFT);
                     break;
 
                 // For keystroke "s", move down and record movement.
-                case LOWERCASE_S:
+                case KEY_S:
                     recordAndMove(Direction.DOWN);
                     break;
 
                 // For keystroke "d", move right and record movement.
-                case LOWERCASE_D:
+                case KEY_D:
                     recordAndMove(Direction.RIGHT);
                     break;
 
                 // For keystroke "u", undo the player's last move.
-                case LOWERCASE_U:
+                case KEY_U:
                     undo();
                     break;
 
+                // For keystroke "r", redo the last move undone.
+                case KEY_R:
+                    redo();
+                    break;
+
                 // For keystroke "o", save the game.
-                case LOWERCASE_O:
+                case KEY_O:
                     saveToFile();
                     break;
 
                 // For keystroke "q", safely exit the game.
-                case LOWERCASE_Q:
-                    return;
+                case KEY_Q:
+                    return false;
 
-                // On any other input, ask user for another input.
+                // Skip whitespace.
                 default:
                     break;
 
@@ -311,21 +555,33 @@ public class Streamline {
 
         }
 
-        // Indicate that the level has been passed, and return.
-        if(this.currentState.levelPassed == true) {
-            System.out.print(this.currentState.toString()); 
-            System.out.println(WIN_MESSAGE);
-            return;
-        }
+        return true;
 
     }
 
+    /**
+     * Checks whether a character is one of the game's keystrokes.
+     * 
+     * @param key The character.
+     * @return    True if runCommands() does something for it.
+     */
+    static boolean isKey(char key) {
+        return key == KEY_W || key == KEY_A || key == KEY_S
+            || key == KEY_D || key == KEY_U || key == KEY_R
+            || key == KEY_O || key == KEY_Q;
+    }
+
     /**
      * Writes the state of the Streamline game to a file with
      * explicit formatting.
      */
     void saveToFile() {
 
+        // Time the save for flight recordings.
+        StreamlineEvents.LevelIoEvent event =
+            new StreamlineEvents.LevelIoEvent();
+        event.begin();
+
         try {
 
             // Create a new File object to write data to.
@@ -335,8 +591,8 @@ public class Streamline {
             PrintWriter saveDataWriter = new PrintWriter(saveData);
 
             // Fetch the side lengths of currentState's board.
-            int boardHeight = this.currentState.board.length;   
-            int boardWidth = this.currentState.board[0].length;         
+            int boardHeight = this.currentState.getHeight();   
+            int boardWidth = this.currentState.getWidth();         
 
             // Write board / player / goal data to the writing object.
             saveDataWriter.print(boardHeight +
@@ -347,15 +603,15 @@ public class Streamline {
                                  SPACE +
                                  this.currentState.playerCol +
                                  NEWLINE_CHAR +
-                                 this.currentState.goalRow +
+                                 this.currentState.getGoalRow() +
                                  SPACE +
-                                 this.currentState.goalCol +
+                                 this.currentState.getGoalCol() +
                                  NEWLINE_CHAR);
 
             // Write data the board data to the writing object.
             for(int i = 0; i < boardHeight; i++) {
                 for(int j = 0; j < boardWidth; j++) {
-                    saveDataWriter.print(this.currentState.board[i][j]);
+                    saveDataWriter.print(this.currentState.charAt(i, j));
                 }
                 saveDataWriter.print(NEWLINE_CHAR);
             }
@@ -366,6 +622,15 @@ public class Streamline {
             // Close the writer once all tasks have concluded.
             saveDataWriter.close();
 
+            if(event.shouldCommit()) {
+                event.operation = "save";
+                event.file = OUTFILE_NAME;
+                event.bytes = saveData.length();
+                event.boardHeight = boardHeight;
+                event.boardWidth = boardWidth;
+                event.commit();
+            }
+
             // Inform the user that their game has been saved.
             System.out.println(SAVED_MESSAGE + OUTFILE_NAME);
 
@@ -0,0 +1,293 @@
+/**
+ * Plays a level without a console or a window, for programs that drive the
+ * game themselves (e.g. agents being trained or evaluated). Each step makes
+ * one move with GameState.move(), so the rules are exactly the game's, and
+ * reports a reward, whether the episode is over, and whether the move
+ * changed anything.
+ *
+ * Once a level has been loaded, stepping, resetting to the same level, and
+ * saving and restoring Snapshots reuse the engine's own storage and don't
+ * allocate, so an engine can be stepped millions of times a second. None
+ * of it is thread-safe; give each thread its own engine (copies of an
+ * engine share the level's layout, which is immutable).
+ *
+ * An episode ends when the goal is reached or when the player is stuck,
+ * i.e. no direction would move it at all.
+ */
+public class StreamlineEngine {
+
+    // Reward for the step that reaches the goal.
+    static final double GOAL_REWARD = 1.0;
+
+    // Reward for any other step that moves the player.
+    static final double MOVE_REWARD = -0.01;
+
+    // Reward for a step that doesn't move the player, including any step
+    // after the episode is over.
+    static final double BLOCKED_REWARD = -0.05;
+
+    // Extra reward for the step that leaves the player stuck.
+    static final double STUCK_REWARD = -1.0;
+
+    // The level as it was loaded, to reset to.
+    private GameState start;
+
+    // The state being played.
+    private GameState state;
+
+    // Steps taken since the last reset.
+    private int steps;
+
+    // True if the last step moved the player.
+    private boolean changed;
+
+    // True once the goal is reached or the player is stuck.
+    private boolean done;
+
+    /**
+     * A saved point in an episode. A Snapshot's storage is reused each time
+     * it's saved into, so saving allocates only the first time (or when the
+     * level's size changes).
+     */
+    static class Snapshot {
+
+        // The level's layout when saved.
+        private LevelLayout layout;
+
+        // The trail, player, and episode progress when saved.
+        private long[] trail;
+        private int playerRow;
+        private int playerCol;
+        private boolean levelPassed;
+        private int steps;
+        private boolean changed;
+        private boolean done;
+    }
+
+    /**
+     * Creates an engine playing a level.
+     *
+     * @param level the level's starting state (copied, not kept)
+     */
+    public StreamlineEngine(GameState level) {
+        reset(level);
+    }
+
+    /**
+     * Creates an engine at the same point of the same episode as another,
+     * sharing nothing that either will change.
+     *
+     * @param other the engine to copy
+     */
+    public StreamlineEngine(StreamlineEngine other) {
+        this.start = new GameState(other.start);
+        this.state = new GameState(other.state);
+        this.steps = other.steps;
+        this.changed = other.changed;
+        this.done = other.done;
+    }
+
+    /**
+     * Starts a new episode on a level. If the level is the same size as the
+     * last one, the engine's storage is reused.
+     *
+     * @param level the level's starting state (copied, not kept)
+     */
+    void reset(GameState level) {
+        if (this.start == null
+                || this.start.trail.length != level.trail.length) {
+            this.start = new GameState(level);
+            this.state = new GameState(level);
+        } else {
+            copy(level, this.start);
+        }
+        reset();
+    }
+
+    /**
+     * Starts a new episode on the current level.
+     */
+    void reset() {
+        copy(this.start, this.state);
+        this.steps = 0;
+        this.changed = false;
+        this.done = this.state.levelPassed || isStuck();
+    }
+
+    /**
+     * Makes one move. Once the episode is over, steps change nothing.
+     *
+     * @param direction the direction to move in
+     * @return          the step's reward
+     */
+    double step(Direction direction) {
+        this.steps++;
+        if (this.done) {
+            this.changed = false;
+            return BLOCKED_REWARD;
+        }
+
+        int row = this.state.playerRow;
+        int col = this.state.playerCol;
+        this.state.move(direction);
+        this.changed = this.state.playerRow != row
+            || this.state.playerCol != col;
+
+        if (this.state.levelPassed) {
+            this.done = true;
+            return GOAL_REWARD;
+        }
+        if (!this.changed)
+            return BLOCKED_REWARD;
+        if (isStuck()) {
+            this.done = true;
+            return MOVE_REWARD + STUCK_REWARD;
+        }
+        return MOVE_REWARD;
+    }
+
+    /**
+     * Makes a sequence of moves, stopping early if the episode ends.
+     *
+     * @param directions the directions to move in, in order
+     * @return           the total reward of the steps taken
+     */
+    double step(Direction[] directions) {
+        return step(directions, 0, directions.length);
+    }
+
+    /**
+     * Makes the moves in part of an array, stopping early if the episode
+     * ends.
+     *
+     * @param directions the directions to move in, in order
+     * @param from       index of the first move to make
+     * @param to         index just past the last move to make
+     * @return           the total reward of the steps taken
+     */
+    double step(Direction[] directions, int from, int to) {
+        double reward = 0;
+        for (int i = from; i < to && !this.done; i++)
+            reward += step(directions[i]);
+        return reward;
+    }
+
+    /**
+     * @return true once the goal is reached or the player is stuck
+     */
+    boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * @return true if the goal has been reached
+     */
+    boolean isPassed() {
+        return this.state.levelPassed;
+    }
+
+    /**
+     * @return true if the last step moved the player
+     */
+    boolean isChanged() {
+        return this.changed;
+    }
+
+    /**
+     * @return steps taken since the last reset
+     */
+    int getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Gets the state being played. It belongs to the engine and changes
+     * with every step, so it should be read, not modified or kept.
+     *
+     * @return the current state
+     */
+    GameState getState() {
+        return this.state;
+    }
+
+    /**
+     * Saves the current point of the episode.
+     *
+     * @param snapshot where to save it, or null to make a new Snapshot
+     * @return         the Snapshot saved into
+     */
+    Snapshot save(Snapshot snapshot) {
+        if (snapshot == null)
+            snapshot = new Snapshot();
+        if (snapshot.trail == null
+                || snapshot.trail.length != this.state.trail.length)
+            snapshot.trail = new long[this.state.trail.length];
+
+        System.arraycopy(this.state.trail, 0, snapshot.trail, 0,
+                         snapshot.trail.length);
+        snapshot.layout = this.state.layout;
+        snapshot.playerRow = this.state.playerRow;
+        snapshot.playerCol = this.state.playerCol;
+        snapshot.levelPassed = this.state.levelPassed;
+        snapshot.steps = this.steps;
+        snapshot.changed = this.changed;
+        snapshot.done = this.done;
+        return snapshot;
+    }
+
+    /**
+     * Goes back to a saved point of the current level's episode.
+     *
+     * @param snapshot a Snapshot saved from an engine on this level
+     * @throws IllegalArgumentException if it was saved on another level
+     */
+    void restore(Snapshot snapshot) {
+        if (snapshot.layout != this.state.layout)
+            throw new IllegalArgumentException(
+                "Snapshot was saved on a different level");
+
+        System.arraycopy(snapshot.trail, 0, this.state.trail, 0,
+                         snapshot.trail.length);
+        this.state.playerRow = snapshot.playerRow;
+        this.state.playerCol = snapshot.playerCol;
+        this.state.levelPassed = snapshot.levelPassed;
+        this.steps = snapshot.steps;
+        this.changed = snapshot.changed;
+        this.done = snapshot.done;
+    }
+
+    /**
+     * Checks whether no direction would move the player, i.e. none of the
+     * four cells next to it (wrapping around the edges) is open.
+     *
+     * @return true if the player can't move
+     */
+    private boolean isStuck() {
+        int height = this.state.getHeight();
+        int width = this.state.getWidth();
+        int row = this.state.playerRow;
+        int col = this.state.playerCol;
+        int up = (row + height - 1) % height;
+        int down = (row + 1) % height;
+        int left = (col + width - 1) % width;
+        int right = (col + 1) % width;
+        return !(up != row && this.state.isOpen(up * width + col))
+            && !(down != row && this.state.isOpen(down * width + col))
+            && !(left != col && this.state.isOpen(row * width + left))
+            && !(right != col && this.state.isOpen(row * width + right));
+    }
+
+    /**
+     * Copies one state into another whose trail is the same size.
+     *
+     * @param from the state to copy
+     * @param to   the state to overwrite
+     */
+    private static void copy(GameState from, GameState to) {
+        System.arraycopy(from.trail, 0, to.trail, 0, from.trail.length);
+        to.layout = from.layout;
+        to.playerRow = from.playerRow;
+        to.playerCol = from.playerCol;
+        to.levelPassed = from.levelPassed;
+    }
+}
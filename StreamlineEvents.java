@@ -0,0 +1,140 @@
+import jdk.jfr.*;
+
+/**
+ * Custom Java Flight Recorder events for the parts of Streamline that take
+ * time under real use: moving, recording history, loading and saving
+ * levels, solving, and rebuilding the GUI. Each event records how big the
+ * job was, so a recording shows which boards and operations are slow.
+ *
+ * Start a recording with e.g.
+ *   java -XX:StartFlightRecording=filename=streamline.jfr GuiStreamline ...
+ * and look for the "Streamline" category. When no recording is running
+ * the events cost next to nothing.
+ */
+public class StreamlineEvents {
+
+    // Category all events are grouped under.
+    static final String CATEGORY = "Streamline";
+
+    /**
+     * One GameState.move() call.
+     */
+    @Name("streamline.Move")
+    @Label("Move")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class MoveEvent extends Event {
+        @Label("Direction")
+        String direction;
+
+        @Label("Board Height")
+        int boardHeight;
+
+        @Label("Board Width")
+        int boardWidth;
+
+        @Label("Cells Traversed")
+        int cellsTraversed;
+
+        @Label("Level Passed")
+        boolean levelPassed;
+    }
+
+    /**
+     * One Streamline.recordAndMove() or Streamline.undo() call.
+     */
+    @Name("streamline.History")
+    @Label("History Update")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class HistoryEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Direction")
+        String direction;
+
+        @Label("Board Height")
+        int boardHeight;
+
+        @Label("Board Width")
+        int boardWidth;
+
+        @Label("History Size")
+        int historySize;
+    }
+
+    /**
+     * One Streamline.loadFromFile() or Streamline.saveToFile() call.
+     */
+    @Name("streamline.LevelIO")
+    @Label("Level I/O")
+    @Category(CATEGORY)
+    public static class LevelIoEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Board Height")
+        int boardHeight;
+
+        @Label("Board Width")
+        int boardWidth;
+    }
+
+    /**
+     * One search for a solution, from the start state to its result.
+     */
+    @Name("streamline.Solve")
+    @Label("Solve")
+    @Category(CATEGORY)
+    public static class SolveEvent extends Event {
+        @Label("Solver")
+        String solver;
+
+        @Label("Board Height")
+        int boardHeight;
+
+        @Label("Board Width")
+        int boardWidth;
+
+        @Label("Nodes Expanded")
+        long nodesExpanded;
+
+        @Label("States Pruned")
+        long statesPruned;
+
+        @Label("Solved")
+        boolean solved;
+
+        @Label("Solution Length")
+        int solutionLength;
+    }
+
+    /**
+     * One pass over the GUI's grid of shapes.
+     */
+    @Name("streamline.Render")
+    @Label("Render")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class RenderEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Board Height")
+        int boardHeight;
+
+        @Label("Board Width")
+        int boardWidth;
+
+        @Label("Shapes Updated")
+        int shapesUpdated;
+    }
+}
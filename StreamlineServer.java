@@ -0,0 +1,338 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * Hosts many headless Streamline sessions in one JVM behind a simple line
+ * based protocol on a local socket. Each connection is one session, handled
+ * on its own virtual thread (or a platform thread before Java 21).
+ *
+ * Requests, one per line:
+ *   LOAD <level>  start the named level from the levels directory
+ *   MOVE <w|a|s|d>  move, like recordAndMove()
+ *   UNDO          undo the last move
+ *   REDO          redo the last move undone
+ *   STATE         send the whole board
+ *   QUIT          end the session
+ *
+ * Responses:
+ *   FULL <height> <width> <passed>   followed by one line per board row
+ *   DELTA <passed> <count> [<row> <col> <char>]...
+ *                                    only the cells changed since the
+ *                                    last response
+ *   ERROR <message>
+ *
+ * Board characters are the usual GameState ones, except that spaces are
+ * sent as WIRE_SPACE so every cell is one visible token.
+ */
+public class StreamlineServer {
+
+    static final String USAGE =
+        "Usage: \n" +
+        "> java StreamlineServer <levels dir>         - "
+        + "serve levels from a directory on the default port\n" +
+        "> java StreamlineServer <levels dir> <port>  - "
+        + "serve levels from a directory on a given port\n";
+
+    static final int DEFAULT_PORT = 7878;
+
+    // Limits that keep each session's memory bounded.
+    static final int MAX_LINE_LENGTH = 256;
+    static final long MAX_HISTORY_BYTES = 4096;
+
+    // Stands in for GameState.SPACE_CHAR on the wire.
+    static final char WIRE_SPACE = '.';
+
+    // Requests.
+    static final String LOAD = "LOAD";
+    static final String MOVE = "MOVE";
+    static final String UNDO = "UNDO";
+    static final String REDO = "REDO";
+    static final String STATE = "STATE";
+    static final String QUIT = "QUIT";
+
+    // Responses.
+    static final String FULL = "FULL";
+    static final String DELTA = "DELTA";
+    static final String ERROR = "ERROR";
+
+    // Where levels are loaded from.
+    private final File levelsDir;
+
+    // Levels parsed so far, shared (read only) by every session.
+    private final ConcurrentHashMap<String, GameState> levels =
+        new ConcurrentHashMap<String, GameState>();
+
+    /**
+     * Creates a server for the levels in a directory.
+     *
+     * @param levelsDir the directory LOAD looks levels up in
+     */
+    public StreamlineServer(File levelsDir) {
+        this.levelsDir = levelsDir;
+    }
+
+    /**
+     * Starts the server and serves until the JVM is stopped.
+     *
+     * @param args the levels directory, and optionally a port
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        File levelsDir = new File(args[0]);
+        if (!levelsDir.isDirectory()) {
+            System.out.printf("%s is not a directory. Exiting..\n", args[0]);
+            return;
+        }
+        int port = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+
+        new StreamlineServer(levelsDir).serve(port);
+    }
+
+    /**
+     * Accepts connections on the loopback interface, one session each.
+     *
+     * @param port the port to listen on
+     */
+    void serve(int port) throws IOException {
+        ExecutorService sessions = newSessionExecutor();
+        try (ServerSocket server = new ServerSocket(port, 0,
+                InetAddress.getLoopbackAddress())) {
+            System.out.printf("Serving levels from %s on port %d..\n",
+                this.levelsDir, server.getLocalPort());
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> runSession(socket));
+            }
+        }
+    }
+
+    /**
+     * Creates the executor sessions run on: a virtual thread per session
+     * when the JVM has them (Java 21+), otherwise a platform thread each.
+     *
+     * @return the session executor
+     */
+    static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("No virtual threads, using platform threads..");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Handles one connection from start to finish.
+     *
+     * @param socket the connection
+     */
+    void runSession(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                 s.getOutputStream(), StandardCharsets.US_ASCII))) {
+
+            Session session = new Session();
+            StringBuilder line = new StringBuilder();
+            while (readLine(in, line)) {
+                if (line.length() > MAX_LINE_LENGTH) {
+                    out.write(ERROR + " line too long\n");
+                } else if (!session.handle(line.toString().trim(), out)) {
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing left to clean up.
+        }
+    }
+
+    /**
+     * Reads a line into a reused builder, keeping at most one character
+     * more than MAX_LINE_LENGTH so a huge line can't use up memory.
+     *
+     * @param in   the stream to read from
+     * @param line cleared, then filled with the line
+     * @return     false at the end of the stream
+     */
+    static boolean readLine(InputStream in, StringBuilder line)
+            throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r' && line.length() <= MAX_LINE_LENGTH)
+                line.append((char) c);
+        }
+        return c != -1 || line.length() > 0;
+    }
+
+    /**
+     * Returns a parsed level, parsing it the first time it's asked for.
+     * Only plain file names inside the levels directory are allowed.
+     *
+     * @param name the level's file name
+     * @return     the level's start state (never modify it), or null
+     */
+    GameState level(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\")
+                || name.startsWith("."))
+            return null;
+
+        return this.levels.computeIfAbsent(name, key -> {
+            File file = new File(this.levelsDir, key);
+            if (!file.isFile())
+                return null;
+
+            // Level files are assumed well formed; skip any that aren't.
+            try {
+                return new Streamline(file.getPath()).currentState;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The state of one connection: its game, and the board as the client
+     * last saw it, which responses are encoded against.
+     */
+    class Session {
+
+        // The game being played, or null before the first LOAD.
+        Streamline game;
+
+        // The board as of the last response.
+        char[][] lastSent;
+
+        /**
+         * Handles one request and writes its response.
+         *
+         * @param request the request line
+         * @param out     where to write the response
+         * @return        false if the session should end
+         */
+        boolean handle(String request, Writer out) throws IOException {
+            int split = request.indexOf(' ');
+            String command = split < 0 ? request : request.substring(0, split);
+            String argument = split < 0 ? "" : request.substring(split + 1);
+
+            if (QUIT.equals(command))
+                return false;
+
+            if (LOAD.equals(command)) {
+                GameState start = level(argument.trim());
+                if (start == null) {
+                    out.write(ERROR + " no such level\n");
+                    return true;
+                }
+                this.game = new Streamline(start);
+                this.game.history = new MoveHistory(MAX_HISTORY_BYTES, null);
+                this.lastSent = null;
+                writeState(out);
+                return true;
+            }
+
+            if (this.game == null) {
+                out.write(ERROR + " no level loaded\n");
+                return true;
+            }
+
+            if (MOVE.equals(command)) {
+                Direction direction = parseDirection(argument.trim());
+                if (direction == null) {
+                    out.write(ERROR + " unknown direction\n");
+                    return true;
+                }
+                this.game.recordAndMove(direction);
+            } else if (UNDO.equals(command)) {
+                this.game.undo();
+            } else if (REDO.equals(command)) {
+                this.game.redo();
+            } else if (STATE.equals(command)) {
+                this.lastSent = null;
+            } else {
+                out.write(ERROR + " unknown command\n");
+                return true;
+            }
+
+            writeState(out);
+            return true;
+        }
+
+        /**
+         * Sends the board: in full if the client has no board yet, or
+         * else only the cells that changed since the last response.
+         *
+         * @param out where to write the response
+         */
+        void writeState(Writer out) throws IOException {
+            GameState state = this.game.currentState;
+            int height = state.getHeight();
+            int width = state.getWidth();
+            int passed = state.levelPassed ? 1 : 0;
+
+            if (this.lastSent == null) {
+                this.lastSent = new char[height][width];
+                out.write(FULL + " " + height + " " + width + " " + passed
+                          + "\n");
+                for (int i = 0; i < height; i++) {
+                    for (int j = 0; j < width; j++) {
+                        this.lastSent[i][j] = state.charAt(i, j);
+                        out.write(toWire(state.charAt(i, j)));
+                    }
+                    out.write('\n');
+                }
+                return;
+            }
+
+            StringBuilder cells = new StringBuilder();
+            int count = 0;
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    char cell = state.charAt(i, j);
+                    if (cell == this.lastSent[i][j]) continue;
+                    this.lastSent[i][j] = cell;
+                    cells.append(' ').append(i).append(' ').append(j)
+                         .append(' ').append(toWire(cell));
+                    count++;
+                }
+            }
+            out.write(DELTA + " " + passed + " " + count + cells + "\n");
+        }
+    }
+
+    /**
+     * Maps a board character to the character sent for it.
+     *
+     * @param cell a board character
+     * @return     its wire character
+     */
+    static char toWire(char cell) {
+        return cell == GameState.SPACE_CHAR ? WIRE_SPACE : cell;
+    }
+
+    /**
+     * Parses a direction the same way Streamline.play() reads keys.
+     *
+     * @param key one of w, a, s, d
+     * @return    the direction, or null if it isn't one
+     */
+    static Direction parseDirection(String key) {
+        switch (key) {
+            case Streamline.LOWERCASE_W: return Direction.UP;
+            case Streamline.LOWERCASE_A: return Direction.LEFT;
+            case Streamline.LOWERCASE_S: return Direction.DOWN;
+            case Streamline.LOWERCASE_D: return Direction.RIGHT;
+            default: return null;
+        }
+    }
+}